@@ -0,0 +1,35 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler enabled, so that every run
+ * reports allocation rate and bytes allocated per operation next to the
+ * timings. Accepts the same arguments as the JMH command line.
+ *
+ * @author kehm
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Main method to run the benchmarks
+     *
+     * @param args JMH command line arguments
+     * @throws CommandLineOptionException if arguments are invalid
+     * @throws RunnerException if a benchmark fails
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
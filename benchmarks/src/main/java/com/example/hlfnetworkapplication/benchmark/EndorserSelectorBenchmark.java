@@ -0,0 +1,61 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.hyperledger.fabric.sdk.ServiceDiscovery;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDChaindcode;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDEndorserState;
+import org.hyperledger.fabric.sdk.SyntheticLayouts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.example.hlfnetworkapplication.fabric.EndorserSelector;
+
+/**
+ * Compares the significance endorsement selector lambda with the indexed
+ * selector on synthetic discovery results. The endorser and invoker
+ * organizations share few layouts, which is the worst case for the lambda.
+ *
+ * @author kehm
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndorserSelectorBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int layouts;
+
+    private SDChaindcode sdc;
+    private ServiceDiscovery.EndorsementSelector lambda;
+    private ServiceDiscovery.EndorsementSelector indexed;
+
+    @Setup
+    public void setup() {
+        sdc = SyntheticLayouts.create(layouts, 20, 3, 4);
+        lambda = EndorserSelector.newSignificanceSelector(new String[]{"org0", "org1"});
+        indexed = new EndorserSelector().forOrganizations("org0", "org1");
+        indexed.endorserSelector(sdc); // build index outside the measurement
+    }
+
+    @Benchmark
+    public SDEndorserState significanceLambda() {
+        return lambda.endorserSelector(sdc);
+    }
+
+    @Benchmark
+    public SDEndorserState significanceIndexed() {
+        return indexed.endorserSelector(sdc);
+    }
+}
@@ -0,0 +1,94 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.hyperledger.fabric.sdk.identity.X509Enrollment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing and reading an enrolled user with Java serialization, as
+ * done on every enrollment before the credential store, and looking the user
+ * up in the credential store with and without its cache. The enrollment holds
+ * an EC P-256 key and a certificate of the size issued by the Fabric CA.
+ *
+ * @author kehm
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientUserSerializationBenchmark {
+
+    private static final int CERTIFICATE_BYTES = 640; // DER size of a typical Fabric CA certificate
+
+    private ClientUser clientUser;
+    private File file;
+    private File storeFile;
+    private CredentialStore store; // decodes the record on every lookup
+    private CredentialStore cachedStore;
+
+    @Setup
+    public void setup() throws GeneralSecurityException, IOException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        byte[] der = new byte[CERTIFICATE_BYTES];
+        ThreadLocalRandom.current().nextBytes(der);
+        String cert = "-----BEGIN CERTIFICATE-----\n" + Base64.getMimeEncoder(64, new byte[]{'\n'}).encodeToString(der) + "\n-----END CERTIFICATE-----\n";
+        clientUser = new ClientUser("user1", "hospital1.surgery", new X509Enrollment(generator.generateKeyPair(), cert), "Hospital1MSP");
+        file = File.createTempFile("clientuser", ".ser");
+        CommunicationHandler.writeObjectToFile(clientUser, file.getPath());
+        storeFile = File.createTempFile("credentials", ".store");
+        storeFile.delete();
+        store = new CredentialStore(storeFile.toPath(), 0);
+        store.put(clientUser);
+        cachedStore = new CredentialStore(storeFile.toPath(), 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.close();
+        cachedStore.close();
+        file.delete();
+        storeFile.delete();
+    }
+
+    @Benchmark
+    public File writeObjectToFile() throws IOException {
+        CommunicationHandler.writeObjectToFile(clientUser, file.getPath());
+        return file;
+    }
+
+    @Benchmark
+    public Object readObjectFromFile() throws IOException, ClassNotFoundException {
+        return CommunicationHandler.readObjectFromFile(file.getPath());
+    }
+
+    @Benchmark
+    public ClientUser readFromStore() throws IOException {
+        return store.get(clientUser.getAffiliation(), clientUser.getName());
+    }
+
+    @Benchmark
+    public ClientUser readFromCachedStore() throws IOException {
+        return cachedStore.get(clientUser.getAffiliation(), clientUser.getName());
+    }
+}
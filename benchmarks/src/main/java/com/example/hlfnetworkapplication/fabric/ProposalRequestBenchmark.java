@@ -0,0 +1,52 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.TransactionProposalRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.example.hlfnetworkapplication.util.Strings;
+
+/**
+ * Measures construction of the transaction proposal request done by
+ * {@link ClientSession#transactionProposal(String, String, String[])} before
+ * the proposal is sent.
+ *
+ * @author kehm
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProposalRequestBenchmark {
+
+    private CommunicationHandler handler;
+    private ClientUser clientUser;
+    private String[] args;
+
+    @Setup
+    public void setup() {
+        handler = new CommunicationHandler(HFClient.createNewInstance());
+        clientUser = new ClientUser("user1", "hospital1.surgery", null, "Hospital1MSP");
+        args = new String[]{UUID.randomUUID().toString(), "01010112345", "1"};
+    }
+
+    @Benchmark
+    public TransactionProposalRequest newProposalRequest() {
+        TransactionProposalRequest request = handler.newProposalRequest(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_CREATE, args);
+        request.setUserContext(clientUser);
+        return request;
+    }
+}
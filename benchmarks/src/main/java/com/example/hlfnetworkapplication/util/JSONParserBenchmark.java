@@ -0,0 +1,91 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures pretty printing of record payloads returned by the
+ * RecordRelationshipContract query, with a growing number of permissions and
+ * log entries, in full and with arrays truncated.
+ *
+ * @author kehm
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JSONParserBenchmark {
+
+    private static final int TRUNCATED_ELEMENTS = 50; // array elements printed when truncating
+
+    @Param({"10", "100", "1000"})
+    private int entries;
+
+    private String[] payload;
+    private byte[] payloadBytes;
+    private final StringBuilder output = new StringBuilder(); // reused between invocations
+
+    @Setup
+    public void setup() {
+        payload = new String[]{createRecord(entries)};
+        payloadBytes = payload[0].getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String getPrettyPrint() {
+        return JSONParser.getPrettyPrint(payload);
+    }
+
+    @Benchmark
+    public StringBuilder prettyPrintBytes() throws IOException {
+        output.setLength(0);
+        JSONParser.prettyPrint(payloadBytes, output, 0);
+        return output;
+    }
+
+    @Benchmark
+    public StringBuilder prettyPrintTruncated() throws IOException {
+        output.setLength(0);
+        JSONParser.prettyPrint(payloadBytes, output, TRUNCATED_ELEMENTS);
+        return output;
+    }
+
+    /**
+     * Create a record payload with the given number of permissions and log
+     * entries
+     *
+     * @param entries Number of entries
+     * @return Record as JSON
+     */
+    private static String createRecord(int entries) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"ref\":\"").append(UUID.randomUUID()).append("\",\"nationalId\":\"01010112345\",\"significance\":1,\"owner\":\"Hospital1MSP\",\"permissions\":[");
+        for (int i = 0; i < entries; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"clientId\":\"user").append(i).append("\",\"mspId\":\"Hospital1MSP\",\"read\":true,\"write\":").append(i % 2 == 0).append('}');
+        }
+        json.append("],\"log\":[");
+        for (int i = 0; i < entries; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"timestamp\":").append(1560000000000L + i * 1000L).append(",\"clientId\":\"user").append(i)
+                    .append("\",\"mspId\":\"Hospital1MSP\",\"event\":\"").append(i % 3 == 0 ? Strings.EVENT_WRITE : Strings.EVENT_READ)
+                    .append("\",\"entry\":\"Blood pressure 120/80, pulse 72. Follow-up in two weeks.\"}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+}
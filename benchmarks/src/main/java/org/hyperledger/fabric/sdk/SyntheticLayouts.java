@@ -0,0 +1,67 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package org.hyperledger.fabric.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDChaindcode;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDEndorser;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDLayout;
+
+/**
+ * Builds synthetic service discovery results for benchmarks. The discovery
+ * classes only have package private constructors, so this class lives in the
+ * SDK package.
+ *
+ * @author kehm
+ */
+public final class SyntheticLayouts {
+
+    private SyntheticLayouts() {
+    }
+
+    /**
+     * Create layouts where each layout requires one peer from each of a
+     * number of consecutive organizations. Organizations are named org0,
+     * org1, ... with MSP IDs org0MSP, org1MSP, ...
+     *
+     * @param layouts Number of layouts
+     * @param organizations Number of organizations
+     * @param groupsPerLayout Number of organization groups in each layout
+     * @param peersPerOrganization Number of peers in each organization
+     * @return Discovered layouts for a chaincode
+     */
+    public static SDChaindcode create(int layouts, int organizations, int groupsPerLayout, int peersPerOrganization) {
+        List<List<SDEndorser>> peers = new ArrayList<>();
+        for (int o = 0; o < organizations; o++) {
+            List<SDEndorser> orgPeers = new ArrayList<>();
+            for (int p = 0; p < peersPerOrganization; p++) {
+                orgPeers.add(newEndorser("peer" + p + ".org" + o + ".example.com:7051", "org" + o + "MSP"));
+            }
+            peers.add(orgPeers);
+        }
+        List<SDLayout> sdLayouts = new ArrayList<>();
+        for (int l = 0; l < layouts; l++) {
+            SDLayout layout = new SDLayout();
+            for (int g = 0; g < groupsPerLayout; g++) {
+                int org = (l + g) % organizations;
+                layout.groups.add(layout.new SDLGroup("G" + g, 1, peers.get(org)));
+            }
+            sdLayouts.add(layout);
+        }
+        return new SDChaindcode("RecordRelationshipContract", sdLayouts);
+    }
+
+    private static SDEndorser newEndorser(String endpoint, String mspId) {
+        return new SDEndorser() {
+            @Override
+            public String getEndpoint() {
+                return endpoint;
+            }
+
+            @Override
+            public String getMspid() {
+                return mspId;
+            }
+        };
+    }
+}
@@ -1,6 +1,8 @@
 /* SPDX-License-Identifier: Apache-2.0 */
 package com.example.hlfnetworkapplication;
 
+import java.util.Arrays;
+import com.example.hlfnetworkapplication.cli.HeadlessApp;
 import com.example.hlfnetworkapplication.javafx.MainApp;
 
 /**
@@ -11,11 +13,16 @@ import com.example.hlfnetworkapplication.javafx.MainApp;
 public class Main {
 
     /**
-     * Main method to launch application interface
+     * Main method to launch application interface, or run in headless mode if
+     * the first argument is --headless
      *
      * @param args Arguments
      */
     public static void main(String[] args) {
-        MainApp.main(args);
+        if (args.length > 0 && args[0].equals("--headless")) {
+            HeadlessApp.main(Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            MainApp.main(args);
+        }
     }
 }
@@ -0,0 +1,276 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+import com.example.hlfnetworkapplication.fabric.ClientSession;
+import com.example.hlfnetworkapplication.fabric.TransactionResult;
+import com.example.hlfnetworkapplication.util.Strings;
+
+/**
+ * Registers records in bulk from a file with one record per line. Lines are
+ * either CSV with the national ID and significance separated by ',' or ';',
+ * or JSON objects with the fields nationalId and significance. The file is
+ * read one line at a time, and at most the configured number of create
+ * transactions are outstanding.
+ *
+ * Each committed record is appended to a mapping file as line number,
+ * national ID and record reference separated by ';'. Lines already in the
+ * mapping file are skipped, so an interrupted import is resumed by running it
+ * again with the same mapping file. The record reference is derived from the
+ * input line. Records that were committed but not yet written to the mapping
+ * file when the earlier run stopped are found on resume by querying the
+ * reference of each line missing from the mapping file before creating it,
+ * and are written to the mapping file instead of being registered a second
+ * time. If the query fails for another reason than a missing record, the
+ * create transaction is submitted again with the same reference. At most the
+ * configured number of transactions were outstanding, so querying stops once
+ * that many lines in a row were not registered. This assumes the earlier run
+ * used the same or a lower concurrency.
+ *
+ * @author kehm
+ */
+public class BulkImporter {
+
+    private static final Logger LOG = Logger.getLogger(BulkImporter.class);
+
+    private final ClientSession session;
+    private final int concurrency; // maximum outstanding transactions
+    private final AtomicLong registered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long rejected; // lines failing validation
+    private long skipped; // lines registered by an earlier run
+
+    /**
+     * Constructor for BulkImporter object
+     *
+     * @param session Session to submit transactions with
+     * @param concurrency Maximum outstanding transactions
+     * @throws IllegalArgumentException if concurrency is not positive
+     */
+    public BulkImporter(ClientSession session, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        this.session = session;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Import records and print progress and a summary
+     *
+     * @param input File with one record per line
+     * @param mapping Mapping file, created if it does not exist
+     * @param out Stream to print progress and summary to
+     * @return Number of lines that were rejected or failed
+     * @throws IOException if the input or mapping file cannot be read or
+     * written
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long run(Path input, Path mapping, PrintStream out) throws IOException, InterruptedException {
+        boolean resume = Files.exists(mapping);
+        BitSet done = readCheckpoint(mapping);
+        int unregistered = 0; // lines in a row not registered by an earlier run
+        Semaphore slots = new Semaphore(concurrency);
+        long reportInterval = Long.valueOf(Strings.IMPORT_REPORT_INTERVAL);
+        long start = System.nanoTime();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread thread = new Thread(r, "import-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long[] reported = {0};
+        reporter.scheduleAtFixedRate(() -> {
+            long count = registered.get();
+            out.println(String.format("%6d s: %d registered, %d failed, %.1f TPS", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), count, failed.get(), (count - reported[0]) * 1000.0 / reportInterval));
+            reported[0] = count;
+        }, reportInterval, reportInterval, TimeUnit.MILLISECONDS);
+        out.println("Importing records from '" + input + "' with concurrency " + concurrency + ". " + done.cardinality() + " lines already registered");
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+                BufferedWriter writer = Files.newBufferedWriter(mapping, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (done.get(lineNumber)) {
+                    skipped++;
+                    continue;
+                }
+                String[] record = parse(line);
+                if (record == null) {
+                    // a header line is not a record
+                    if (lineNumber > 1) {
+                        rejected++;
+                        out.println("Line " + lineNumber + ": ID must be " + Strings.FORMAT_NATIONAL_ID_CHARACTER + " only and of length " + Strings.FORMAT_NATIONAL_ID_LENGTH + ", followed by the significance");
+                    }
+                    continue;
+                }
+                String ref = UUID.nameUUIDFromBytes((input.getFileName() + ":" + lineNumber + ":" + record[0] + ":" + record[1]).getBytes(StandardCharsets.UTF_8)).toString();
+                if (resume && unregistered < concurrency) {
+                    // the line may have been committed after the earlier run last wrote the mapping file
+                    if (isRegistered(ref)) {
+                        unregistered = 0;
+                        skipped++;
+                        writeMapping(writer, lineNumber, record, ref);
+                        continue;
+                    }
+                    unregistered++;
+                }
+                slots.acquire();
+                submit(lineNumber, record, ref, writer, slots);
+            }
+            // wait for outstanding transactions to complete
+            long drain = Long.valueOf(Strings.PROPOSAL_TIMEOUT) + Long.valueOf(Strings.COMMIT_TIMEOUT);
+            if (!slots.tryAcquire(concurrency, drain, TimeUnit.MILLISECONDS)) {
+                out.println("Gave up waiting for " + (concurrency - slots.availablePermits()) + " outstanding transactions");
+            }
+        } finally {
+            reporter.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.println(String.format("Registered %d records in %.1f s (%.1f TPS). %d failed, %d rejected, %d skipped", registered.get(), seconds, registered.get() / seconds, failed.get(), rejected, skipped));
+        return failed.get() + rejected;
+    }
+
+    /**
+     * Submit the create transaction of a record and write its reference to
+     * the mapping file once committed
+     */
+    private void submit(int lineNumber, String[] record, String ref, BufferedWriter writer, Semaphore slots) {
+        CompletableFuture<TransactionResult> future;
+        try {
+            future = session.submitAsync(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_CREATE, new String[]{ref, record[0], record[1]});
+        } catch (RuntimeException ex) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(ex);
+        }
+        future.whenComplete((result, ex) -> {
+            try {
+                if (ex != null) {
+                    failed.incrementAndGet();
+                    LOG.error("Could not register record on line " + lineNumber, ex);
+                    return;
+                }
+                writeMapping(writer, lineNumber, record, ref);
+                registered.incrementAndGet();
+            } catch (IOException ioe) {
+                failed.incrementAndGet();
+                LOG.error("Could not write reference of record on line " + lineNumber, ioe);
+            } finally {
+                slots.release();
+            }
+        });
+    }
+
+    /**
+     * Check whether a record was registered by querying its reference,
+     * without logging the read on the ledger. A query for a missing record
+     * fails with a chaincode error, which cannot be told apart from other
+     * failures, so a failed query counts as not registered.
+     *
+     * @return True if the record exists
+     */
+    private boolean isRegistered(String ref) {
+        try {
+            String payload = session.queryProposal(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_QUERY, new String[]{ref, "0"});
+            return payload != null && !payload.isEmpty();
+        } catch (InvalidArgumentException | ProposalException ex) {
+            LOG.debug("Record '" + ref + "' not found", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Append a registered record to the mapping file
+     */
+    private static void writeMapping(BufferedWriter writer, int lineNumber, String[] record, String ref) throws IOException {
+        synchronized (writer) {
+            writer.write(lineNumber + ";" + record[0] + ";" + ref);
+            writer.newLine();
+            writer.flush();
+        }
+    }
+
+    /**
+     * Parse and validate a record line
+     *
+     * @return National ID and significance, or null if the line is invalid
+     */
+    private static String[] parse(String line) {
+        String nationalId;
+        String significance;
+        if (line.startsWith("{")) {
+            try {
+                JsonObject object = new JsonParser().parse(line).getAsJsonObject();
+                JsonElement id = object.get("nationalId");
+                JsonElement value = object.get("significance");
+                if (id == null || value == null) {
+                    return null;
+                }
+                nationalId = id.getAsString();
+                significance = value.getAsString();
+            } catch (JsonSyntaxException | IllegalStateException | UnsupportedOperationException ex) {
+                return null;
+            }
+        } else {
+            String[] fields = line.split("[,;]");
+            if (fields.length != 2) {
+                return null;
+            }
+            nationalId = fields[0].trim();
+            significance = fields[1].trim();
+        }
+        if (!nationalId.matches(Strings.FORMAT_NATIONAL_ID_CHARACTER) || nationalId.length() != Integer.valueOf(Strings.FORMAT_NATIONAL_ID_LENGTH) || significance.isEmpty()) {
+            return null;
+        }
+        return new String[]{nationalId, significance};
+    }
+
+    /**
+     * Read the line numbers already registered from the mapping file
+     */
+    private static BitSet readCheckpoint(Path mapping) throws IOException {
+        BitSet done = new BitSet();
+        if (!Files.exists(mapping)) {
+            return done;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(mapping, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(";");
+                try {
+                    done.set(Integer.parseInt(fields[0]));
+                } catch (NumberFormatException ex) {
+                    // line torn by an interrupted run
+                    LOG.info("Ignoring invalid line in mapping file '" + line + "'");
+                }
+            }
+        }
+        return done;
+    }
+}
@@ -0,0 +1,381 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.cli;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import com.example.hlfnetworkapplication.fabric.ClientSession;
+import com.example.hlfnetworkapplication.fabric.ClientUser;
+import com.example.hlfnetworkapplication.fabric.CommunicationHandler;
+import com.example.hlfnetworkapplication.fabric.EnrollmentResult;
+import com.example.hlfnetworkapplication.fabric.TransactionResult;
+import com.example.hlfnetworkapplication.util.Affiliation;
+import com.example.hlfnetworkapplication.util.AffiliationRegistry;
+import com.example.hlfnetworkapplication.util.JSONParser;
+import com.example.hlfnetworkapplication.util.Strings;
+
+/**
+ * Headless entry point for running RecordRelationshipContract operations and
+ * load tests without a display server. Commands are read from the command
+ * line, or one per line from a script file.
+ *
+ * Usage: --headless -u user -a affiliation [-f script] [command [args]]
+ *
+ * Commands:
+ * <pre>
+ * create nationalId significance
+ * update ref clientId grant|revoke client|msp read|write
+ * log ref entry
+ * query ref [override]
+ * load [concurrency=N] [tps=N] [duration=seconds] [mix=create:2,log:3,query:5]
+ * </pre>
+ *
+ * @author kehm
+ */
+public class HeadlessApp {
+
+    private static final Logger LOG = Logger.getLogger(HeadlessApp.class);
+
+    private static final String USAGE = "Usage: --headless -u <user> -a <affiliation> [-f <script>] [<command> [<args>]]\n"
+            + "Commands:\n"
+            + "  create <nationalId> <significance>\n"
+            + "  update <ref> <clientId> grant|revoke client|msp read|write\n"
+            + "  log <ref> <entry>\n"
+            + "  query <ref> [override]\n"
+            + "  load [concurrency=N] [tps=N] [duration=seconds] [mix=create:2,log:3,query:5]\n"
+            + "  import <file> [mapping=file] [concurrency=N]\n"
+            + "  enroll <user> [<user>...]";
+
+    private final CommunicationHandler handler;
+    private final ClientSession session;
+    private final PrintStream out;
+
+    /**
+     * Constructor for HeadlessApp object
+     *
+     * @param handler Handler the session belongs to
+     * @param session Session to run commands with
+     * @param out Stream to print results to
+     */
+    public HeadlessApp(CommunicationHandler handler, ClientSession session, PrintStream out) {
+        this.handler = handler;
+        this.session = session;
+        this.out = out;
+    }
+
+    /**
+     * Main method for headless mode
+     *
+     * @param args Arguments, without the --headless flag
+     */
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Enroll, then run the commands given as arguments or in the script file
+     *
+     * @param args Arguments, without the --headless flag
+     * @return Exit status, 0 if all commands succeeded
+     */
+    public static int run(String[] args) {
+        String userName = null;
+        String affiliation = null;
+        String script = null;
+        List<String> command = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (command.isEmpty() && (args[i].equals("-u") || args[i].equals("-a") || args[i].equals("-f")) && i + 1 < args.length) {
+                switch (args[i]) {
+                    case "-u":
+                        userName = args[++i];
+                        break;
+                    case "-a":
+                        affiliation = args[++i];
+                        break;
+                    default:
+                        script = args[++i];
+                        break;
+                }
+            } else {
+                command.add(args[i]);
+            }
+        }
+        if (userName == null || affiliation == null || (script == null && command.isEmpty())) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        try {
+            CommunicationHandler handler = new CommunicationHandler();
+            // prepare the client and channel while the user enrolls
+            handler.warmUp();
+            ClientUser clientUser = enroll(handler, userName, affiliation);
+            if (clientUser == null) {
+                System.err.println("ERROR: Could not find configuration for affiliation '" + affiliation + "'");
+                return 1;
+            }
+            long length = handler.awaitChannel(clientUser);
+            System.out.println("Channel '" + handler.getChannel().getName() + "'. Length: " + length);
+            ClientSession session = handler.newSession(clientUser);
+            try {
+                HeadlessApp app = new HeadlessApp(handler, session, System.out);
+                boolean success = true;
+                if (script != null) {
+                    success = app.runScript(script);
+                }
+                if (!command.isEmpty()) {
+                    success &= app.runCommand(command.toArray(new String[0]));
+                }
+                return success ? 0 : 1;
+            } finally {
+                session.close();
+            }
+        } catch (Exception ex) {
+            LOG.error(ex);
+            System.err.println("ERROR: " + ex.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Run commands from a script file. Empty lines and lines starting with #
+     * are ignored. Arguments are separated by whitespace.
+     *
+     * @param path Path to script file
+     * @return True if all commands succeeded
+     * @throws IOException if the script cannot be read
+     */
+    public boolean runScript(String path) throws IOException {
+        boolean success = true;
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                out.println("> " + line);
+                success &= runCommand(line.split("\\s+"));
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Run a single command
+     *
+     * @param command Command name followed by its arguments
+     * @return True if the command succeeded
+     */
+    public boolean runCommand(String[] command) {
+        String[] args = Arrays.copyOfRange(command, 1, command.length);
+        try {
+            switch (command[0].toLowerCase()) {
+                case "create":
+                    return create(args);
+                case "update":
+                    return update(args);
+                case "log":
+                    return log(args);
+                case "query":
+                    return query(args);
+                case "load":
+                    return load(args);
+                case "import":
+                    return importRecords(args);
+                case "enroll":
+                    return enrollAll(args);
+                default:
+                    out.println("ERROR: Unknown command '" + command[0] + "'");
+                    out.println(USAGE);
+                    return false;
+            }
+        } catch (ExecutionException ex) {
+            LOG.error(ex);
+            out.println(Strings.STATUS_TRANSACTION_FAILED + ": " + ex.getCause().getMessage());
+            return false;
+        } catch (IllegalArgumentException ex) {
+            out.println("ERROR: " + ex.getMessage());
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception ex) {
+            LOG.error(ex);
+            out.println("ERROR: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private boolean create(String[] args) throws ExecutionException, InterruptedException {
+        requireArgs(args, 2, "create <nationalId> <significance>");
+        if (!args[0].matches(Strings.FORMAT_NATIONAL_ID_CHARACTER) || args[0].length() != Integer.valueOf(Strings.FORMAT_NATIONAL_ID_LENGTH)) {
+            throw new IllegalArgumentException("ID must be " + Strings.FORMAT_NATIONAL_ID_CHARACTER + " only and of length " + Strings.FORMAT_NATIONAL_ID_LENGTH);
+        }
+        String ref = UUID.randomUUID().toString();
+        submit(Strings.RRC_CHAINCODE_FUNCTION_CREATE, new String[]{ref, args[0], args[1]});
+        out.println("Registered new record with reference: " + ref);
+        return true;
+    }
+
+    private boolean update(String[] args) throws ExecutionException, InterruptedException {
+        requireArgs(args, 5, "update <ref> <clientId> grant|revoke client|msp read|write");
+        String permission = choose(args[2], "grant", "revoke");
+        String entity = choose(args[3], "client", "msp");
+        String event = choose(args[4], Strings.EVENT_READ, Strings.EVENT_WRITE).equals("0") ? Strings.EVENT_READ : Strings.EVENT_WRITE;
+        submit(Strings.RRC_CHAINCODE_FUNCTION_UPDATE, new String[]{args[0], args[1], permission, entity, event});
+        out.println("Permissions updated for record: " + args[0]);
+        return true;
+    }
+
+    private boolean log(String[] args) throws ExecutionException, InterruptedException {
+        requireArgs(args, 2, "log <ref> <entry>");
+        String entry = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+        submit(Strings.RRC_CHAINCODE_FUNCTION_LOG, new String[]{args[0], Strings.EVENT_WRITE, entry});
+        out.println("Entry logged for record: " + args[0]);
+        return true;
+    }
+
+    private boolean query(String[] args) throws ExecutionException, InterruptedException {
+        requireArgs(args, 1, "query <ref> [override]");
+        boolean override = args.length > 1 && (args[1].equals("1") || args[1].equalsIgnoreCase("override"));
+        String payload = session.readRecord(args[0], override, (ex) -> out.println("ERROR: Read of record " + args[0] + " could not be logged: " + ex.getMessage())).get();
+        if (payload != null) {
+            out.println("Query returned: ");
+            try {
+                JSONParser.prettyPrint(new StringReader(payload), out, 0);
+            } catch (IOException ex) {
+                throw new ExecutionException(ex);
+            }
+            out.println();
+        } else {
+            out.println("Query returned no payload");
+        }
+        return true;
+    }
+
+    private boolean load(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        options.put("concurrency", Strings.LOAD_CONCURRENCY);
+        options.put("tps", Strings.LOAD_TPS);
+        options.put("duration", Strings.LOAD_DURATION);
+        options.put("mix", Strings.LOAD_MIX);
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2 || !options.containsKey(option[0])) {
+                throw new IllegalArgumentException("Unknown load option '" + arg + "'");
+            }
+            options.put(option[0], option[1]);
+        }
+        LoadGenerator generator = new LoadGenerator(session, Integer.parseInt(options.get("concurrency")), Double.parseDouble(options.get("tps")), Long.parseLong(options.get("duration")), options.get("mix"));
+        return generator.run(out) == 0;
+    }
+
+    private boolean importRecords(String[] args) throws IOException, InterruptedException {
+        requireArgs(args, 1, "import <file> [mapping=file] [concurrency=N]");
+        Map<String, String> options = new HashMap<>();
+        options.put("mapping", args[0] + ".refs");
+        options.put("concurrency", Strings.IMPORT_CONCURRENCY);
+        for (String arg : Arrays.copyOfRange(args, 1, args.length)) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2 || !options.containsKey(option[0])) {
+                throw new IllegalArgumentException("Unknown import option '" + arg + "'");
+            }
+            options.put(option[0], option[1]);
+        }
+        BulkImporter importer = new BulkImporter(session, Integer.parseInt(options.get("concurrency")));
+        return importer.run(Paths.get(args[0]), Paths.get(options.get("mapping")), out) == 0;
+    }
+
+    private boolean enrollAll(String[] args) throws Exception {
+        requireArgs(args, 1, "enroll <user> [<user>...]");
+        String affiliation = session.getClientUser().getAffiliation();
+        Affiliation config = findAffiliation(affiliation);
+        if (config == null) {
+            throw new IllegalArgumentException("Could not find configuration for affiliation '" + affiliation + "'");
+        }
+        long start = System.nanoTime();
+        List<EnrollmentResult> results = handler.enrollAll(Arrays.asList(args), config.getCaName(), config.getCaUrl(), config.getRegistrarName(), config.getRegistrarPass(), config.getName(), config.getMspId(), Integer.valueOf(Strings.ENROLL_CONCURRENCY));
+        boolean success = true;
+        for (EnrollmentResult result : results) {
+            if (result.isSuccess()) {
+                out.println(String.format("%-24s enrolled in %d ms", result.getUserName(), result.getDuration()));
+            } else {
+                out.println(String.format("%-24s failed after %d ms: %s", result.getUserName(), result.getDuration(), result.getError().getMessage()));
+                success = false;
+            }
+        }
+        out.println("Enrolled " + results.stream().filter(EnrollmentResult::isSuccess).count() + " of " + results.size() + " users in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return success;
+    }
+
+    private void submit(String function, String[] args) throws ExecutionException, InterruptedException {
+        CompletableFuture<TransactionResult> future;
+        if (session.getOutbox() != null) {
+            try {
+                // a new record is identified by its reference, so a repeated create is not appended twice
+                // every other command is a new request with a new reference
+                future = function.equals(Strings.RRC_CHAINCODE_FUNCTION_CREATE) ? session.getOutbox().submit(args[0], Strings.RRC_CHAINCODE_NAME, function, args) : session.getOutbox().submit(Strings.RRC_CHAINCODE_NAME, function, args);
+            } catch (IOException ex) {
+                throw new ExecutionException(ex);
+            }
+        } else if (function.equals(Strings.RRC_CHAINCODE_FUNCTION_CREATE)) {
+            future = session.submitAsync(Strings.RRC_CHAINCODE_NAME, function, args);
+        } else {
+            future = session.submitWrite(Strings.RRC_CHAINCODE_NAME, function, args);
+        }
+        out.println(Strings.STATUS_TRANSACTION_SUCCESS + ": " + future.get().getTransactionID());
+    }
+
+    /**
+     * Enroll a user with the configuration of the affiliation in the
+     * affiliations file
+     *
+     * @return Enrolled user, or null if the affiliation is not configured
+     */
+    private static ClientUser enroll(CommunicationHandler handler, String userName, String affiliation) throws Exception {
+        Affiliation config = findAffiliation(affiliation);
+        return config == null ? null : handler.enroll(userName, config.getCaName(), config.getCaUrl(), config.getRegistrarName(), config.getRegistrarPass(), config.getName(), config.getMspId());
+    }
+
+    /**
+     * Find the configuration of an affiliation in the affiliations file
+     *
+     * @return Affiliation, or null if the affiliation is not configured
+     */
+    private static Affiliation findAffiliation(String affiliation) throws IOException {
+        return AffiliationRegistry.getInstance().get(affiliation);
+    }
+
+    private static void requireArgs(String[] args, int count, String usage) {
+        if (args.length < count) {
+            throw new IllegalArgumentException("Usage: " + usage);
+        }
+    }
+
+    /**
+     * Map a choice between two words to the flag used by the chaincode
+     *
+     * @return "0" for the first word, "1" for the second
+     */
+    private static String choose(String value, String first, String second) {
+        if (value.equalsIgnoreCase(first) || value.equals("0")) {
+            return "0";
+        } else if (value.equalsIgnoreCase(second) || value.equals("1")) {
+            return "1";
+        }
+        throw new IllegalArgumentException("Expected '" + first + "' or '" + second + "' but got '" + value + "'");
+    }
+}
@@ -0,0 +1,253 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.cli;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.log4j.Logger;
+import com.example.hlfnetworkapplication.fabric.ClientSession;
+import com.example.hlfnetworkapplication.fabric.TransactionResult;
+import com.example.hlfnetworkapplication.util.LatencyHistogram;
+import com.example.hlfnetworkapplication.util.Strings;
+
+/**
+ * Generates load against RecordRelationshipContract at a target rate. Each
+ * operation is drawn from a weighted mix and submitted through a client
+ * session, with at most the configured number of operations outstanding.
+ * Latency is measured from the time an operation was scheduled to start, so
+ * time spent waiting for a free slot when the network falls behind the target
+ * rate is included in the reported percentiles.
+ *
+ * Log, query and update operations target records created earlier in the run.
+ * Until the first record is created they are replaced by create operations.
+ *
+ * @author kehm
+ */
+public class LoadGenerator {
+
+    private static final Logger LOG = Logger.getLogger(LoadGenerator.class);
+
+    public static final String OPERATION_CREATE = "create";
+    public static final String OPERATION_LOG = "log";
+    public static final String OPERATION_QUERY = "query";
+    public static final String OPERATION_UPDATE = "update";
+
+    private static final int RECORD_POOL_SIZE = 4096; // number of created records kept as targets
+
+    private final ClientSession session;
+    private final int concurrency; // maximum outstanding operations
+    private final double tps; // target operations per second
+    private final long duration; // run time in seconds
+    private final String[] operations; // operations in the mix
+    private final int[] weights; // cumulative weight of each operation
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>(); // latency in microseconds for each operation
+    private final Map<String, AtomicLong> failures = new LinkedHashMap<>(); // failed operations for each operation
+    private final AtomicReferenceArray<String> records = new AtomicReferenceArray<>(RECORD_POOL_SIZE); // references of created records
+    private final AtomicLong created = new AtomicLong();
+
+    /**
+     * Constructor for LoadGenerator object
+     *
+     * @param session Session to submit operations with
+     * @param concurrency Maximum outstanding operations
+     * @param tps Target operations per second
+     * @param duration Run time in seconds
+     * @param mix Operation mix as comma separated operation:weight pairs, for
+     * example create:2,log:3,query:5
+     * @throws IllegalArgumentException if any argument is invalid
+     */
+    public LoadGenerator(ClientSession session, int concurrency, double tps, long duration, String mix) {
+        if (concurrency < 1 || tps <= 0 || duration < 1) {
+            throw new IllegalArgumentException("Concurrency, TPS and duration must be positive");
+        }
+        this.session = session;
+        this.concurrency = concurrency;
+        this.tps = tps;
+        this.duration = duration;
+        String[] entries = mix.split(",");
+        operations = new String[entries.length];
+        weights = new int[entries.length];
+        int total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].trim().split(":");
+            String operation = entry[0].toLowerCase();
+            if (!operation.equals(OPERATION_CREATE) && !operation.equals(OPERATION_LOG) && !operation.equals(OPERATION_QUERY) && !operation.equals(OPERATION_UPDATE)) {
+                throw new IllegalArgumentException("Unknown operation '" + entry[0] + "' in mix");
+            }
+            int weight = entry.length > 1 ? Integer.parseInt(entry[1]) : 1;
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight for operation '" + operation + "'");
+            }
+            total += weight;
+            operations[i] = operation;
+            weights[i] = total;
+            latencies.putIfAbsent(operation, new LatencyHistogram());
+            failures.putIfAbsent(operation, new AtomicLong());
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Operation mix has no weight");
+        }
+        latencies.putIfAbsent(OPERATION_CREATE, new LatencyHistogram());
+        failures.putIfAbsent(OPERATION_CREATE, new AtomicLong());
+    }
+
+    /**
+     * Run the load and print progress and a summary
+     *
+     * @param out Stream to print progress and summary to
+     * @return Number of failed operations
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long run(PrintStream out) throws InterruptedException {
+        Semaphore slots = new Semaphore(concurrency);
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / tps);
+        long reportInterval = TimeUnit.MILLISECONDS.toNanos(Long.valueOf(Strings.LOAD_REPORT_INTERVAL));
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(duration);
+        long next = start;
+        long nextReport = start + reportInterval;
+        long reported = 0;
+        out.println("Running load for " + duration + " s at " + tps + " TPS with concurrency " + concurrency);
+        while (next < end) {
+            long now = System.nanoTime();
+            while (now < next) {
+                LockSupport.parkNanos(next - now);
+                now = System.nanoTime();
+            }
+            if (now >= nextReport) {
+                long completed = getCompleted();
+                out.println(String.format("%6d s: %d completed, %d failed, %.1f TPS", TimeUnit.NANOSECONDS.toSeconds(now - start), completed, getFailed(), (completed - reported) * 1e9 / reportInterval));
+                reported = completed;
+                nextReport += reportInterval;
+            }
+            // wait for a free slot, the wait counts towards the latency of the operation
+            if (!slots.tryAcquire(end - now, TimeUnit.NANOSECONDS)) {
+                break;
+            }
+            final long scheduled = next;
+            final String operation = nextOperation();
+            CompletableFuture<TransactionResult> future;
+            try {
+                future = submit(operation);
+            } catch (RuntimeException ex) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(ex);
+            }
+            future.whenComplete((result, ex) -> {
+                if (ex != null) {
+                    failures.get(operation).incrementAndGet();
+                    LOG.debug("Operation '" + operation + "' failed", ex);
+                } else {
+                    latencies.get(operation).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled));
+                }
+                slots.release();
+            });
+            next += interval;
+        }
+        // wait for outstanding operations to complete
+        long drain = Long.valueOf(Strings.PROPOSAL_TIMEOUT) + Long.valueOf(Strings.COMMIT_TIMEOUT);
+        if (!slots.tryAcquire(concurrency, drain, TimeUnit.MILLISECONDS)) {
+            out.println("Gave up waiting for " + (concurrency - slots.availablePermits()) + " outstanding operations");
+        }
+        printSummary(out, System.nanoTime() - start);
+        return getFailed();
+    }
+
+    /**
+     * Print throughput and latency percentiles for each operation
+     */
+    private void printSummary(PrintStream out, long elapsed) {
+        double seconds = elapsed / 1e9;
+        LatencyHistogram total = new LatencyHistogram();
+        out.println(String.format("%-8s %9s %7s %9s %9s %9s %9s %9s %9s", "op", "ok", "failed", "tps", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            printRow(out, entry.getKey(), histogram, failures.get(entry.getKey()).get(), seconds);
+            total.merge(histogram);
+        }
+        printRow(out, "total", total, getFailed(), seconds);
+    }
+
+    private static void printRow(PrintStream out, String name, LatencyHistogram histogram, long failed, double seconds) {
+        out.println(String.format("%-8s %9d %7d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f", name, histogram.getCount(), failed, histogram.getCount() / seconds,
+                histogram.getMean() / 1000, histogram.getPercentile(50) / 1000.0, histogram.getPercentile(90) / 1000.0, histogram.getPercentile(99) / 1000.0, histogram.getMax() / 1000.0));
+    }
+
+    /**
+     * Draw the next operation from the mix
+     */
+    private String nextOperation() {
+        int draw = ThreadLocalRandom.current().nextInt(weights[weights.length - 1]);
+        for (int i = 0; i < weights.length; i++) {
+            if (draw < weights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    /**
+     * Submit an operation. Operations on existing records are replaced by
+     * create until a record exists.
+     */
+    private CompletableFuture<TransactionResult> submit(String operation) {
+        String ref = getRecord();
+        if (ref == null || operation.equals(OPERATION_CREATE)) {
+            String newRef = UUID.randomUUID().toString();
+            return session.submitAsync(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_CREATE, new String[]{newRef, newNationalId(), "1"}).thenApply((result) -> {
+                records.set((int) (created.getAndIncrement() % RECORD_POOL_SIZE), newRef);
+                return result;
+            });
+        }
+        switch (operation) {
+            case OPERATION_LOG:
+                return session.submitWrite(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_LOG, new String[]{ref, Strings.EVENT_WRITE, "Load generator entry"});
+            case OPERATION_UPDATE:
+                return session.submitWrite(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_UPDATE, new String[]{ref, session.getClientUser().getName(), "0", "0", Strings.EVENT_READ});
+            default:
+                return session.submitAsync(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_QUERY, new String[]{ref, "0"});
+        }
+    }
+
+    /**
+     * Get a random record created earlier in the run
+     *
+     * @return Record reference, or null if no record is created yet
+     */
+    private String getRecord() {
+        long count = Math.min(created.get(), RECORD_POOL_SIZE);
+        return count == 0 ? null : records.get(ThreadLocalRandom.current().nextInt((int) count));
+    }
+
+    private static String newNationalId() {
+        StringBuilder id = new StringBuilder();
+        for (int i = 0; i < Integer.valueOf(Strings.FORMAT_NATIONAL_ID_LENGTH); i++) {
+            id.append(ThreadLocalRandom.current().nextInt(10));
+        }
+        return id.toString();
+    }
+
+    private long getCompleted() {
+        long completed = 0;
+        for (LatencyHistogram histogram : latencies.values()) {
+            completed += histogram.getCount();
+        }
+        return completed;
+    }
+
+    private long getFailed() {
+        long failed = 0;
+        for (AtomicLong count : failures.values()) {
+            failed += count.get();
+        }
+        return failed;
+    }
+}
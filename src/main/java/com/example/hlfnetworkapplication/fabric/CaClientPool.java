@@ -0,0 +1,102 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.sdk.exception.CryptoException;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+import org.hyperledger.fabric_ca.sdk.HFCAClient;
+
+/**
+ * CA clients and registrars shared by all enrollments. A CA client is created
+ * once for each CA name and URL, and a registrar is enrolled or read from
+ * file once for each CA, registrar name and affiliation.
+ *
+ * @author kehm
+ */
+public class CaClientPool {
+
+    private static final Logger LOG = Logger.getLogger(CaClientPool.class);
+
+    private final Map<String, HFCAClient> clients = new ConcurrentHashMap<>(); // CA clients by CA name and URL
+    private final Map<String, ClientUser> registrars = new ConcurrentHashMap<>(); // registrars by CA, registrar name and affiliation
+    private final Map<String, Object> registrarLocks = new ConcurrentHashMap<>(); // held while a registrar is enrolled
+
+    /**
+     * Get the CA client for a CA, creating it on first use
+     *
+     * @param caName Name of the CA
+     * @param caUrl URL of the CA
+     * @return CA client
+     * @throws MalformedURLException if URL is invalid
+     * @throws InvalidArgumentException if the CA client cannot be created
+     * @throws CryptoException if the crypto suite cannot be created
+     */
+    public HFCAClient getClient(String caName, String caUrl) throws MalformedURLException, InvalidArgumentException, CryptoException {
+        String key = caName + ";" + caUrl;
+        HFCAClient caClient = clients.get(key);
+        if (caClient != null) {
+            return caClient;
+        }
+        synchronized (clients) {
+            caClient = clients.get(key);
+            if (caClient == null) {
+                caClient = HFCAClient.createNewInstance(caName, caUrl, null);
+                try {
+                    caClient.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
+                } catch (ClassNotFoundException | IllegalAccessException | InstantiationException | NoSuchMethodException | InvocationTargetException ex) {
+                    throw new CryptoException("Could not create crypto suite for CA '" + caName + "'", ex);
+                }
+                clients.put(key, caClient);
+                LOG.info("Created client for CA '" + caName + "' at " + caUrl);
+            }
+            return caClient;
+        }
+    }
+
+    /**
+     * Enrolls a registrar
+     */
+    public interface RegistrarLoader {
+
+        /**
+         * Enroll the registrar, or read it from the credential store
+         *
+         * @return Enrolled registrar
+         * @throws Exception if the registrar cannot be enrolled
+         */
+        ClientUser load() throws Exception;
+    }
+
+    /**
+     * Get a registrar, enrolling it on first use. Concurrent callers for the
+     * same registrar wait for a single enrollment, and callers for other
+     * registrars are not blocked.
+     *
+     * @param caName Name of the CA
+     * @param registrarName Registrar name
+     * @param affiliation Associated affiliation
+     * @param loader Enrolls the registrar if it is not cached
+     * @return Registrar
+     * @throws Exception if the registrar cannot be enrolled
+     */
+    public ClientUser getRegistrar(String caName, String registrarName, String affiliation, RegistrarLoader loader) throws Exception {
+        String key = caName + ";" + registrarName + ";" + affiliation;
+        ClientUser registrar = registrars.get(key);
+        if (registrar != null) {
+            return registrar;
+        }
+        synchronized (registrarLocks.computeIfAbsent(key, (k) -> new Object())) {
+            registrar = registrars.get(key);
+            if (registrar == null) {
+                registrar = loader.load();
+                registrars.put(key, registrar);
+            }
+            return registrar;
+        }
+    }
+}
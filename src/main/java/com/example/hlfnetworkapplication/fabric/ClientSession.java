@@ -0,0 +1,676 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.ChaincodeID;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
+import org.hyperledger.fabric.sdk.SDKUtils;
+import org.hyperledger.fabric.sdk.ServiceDiscovery;
+import org.hyperledger.fabric.sdk.TransactionProposalRequest;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.hyperledger.fabric.sdk.exception.ServiceDiscoveryException;
+import org.hyperledger.fabric.sdk.exception.TransactionException;
+import com.example.hlfnetworkapplication.metrics.ClientMetrics;
+import com.example.hlfnetworkapplication.util.Strings;
+
+/**
+ * Session for an enrolled user. Proposals and transactions are signed with the
+ * user of the session, and the endorser organization selected by the incentive
+ * mechanism is cached for the session. Sessions are thread safe and share the
+ * channel of their {@link CommunicationHandler}.
+ *
+ * @author kehm
+ */
+public class ClientSession {
+
+    private static final Logger LOG = Logger.getLogger(ClientSession.class);
+
+    private final CommunicationHandler handler; // shared client and channel
+    private final ClientUser clientUser; // user signing proposals and transactions
+    private final String organization; // organization of the user
+    private final EndorserCache endorserCache; // endorser organization selected by the incentive mechanism
+    private final RecordCache recordCache; // records read by the user, null if disabled
+    private final TransactionOutbox outbox; // transactions waiting to be committed, null if disabled
+    private final Set<CompletableFuture<TransactionResult>> audits = ConcurrentHashMap.newKeySet(); // audit logs of reads not yet committed
+    private final Map<String, List<Consumer<Throwable>>> cachedReads = new ConcurrentHashMap<>(); // failure callbacks of cache hits not yet logged, by reference
+    private final ScheduledFuture<?> cachedReadsFlush; // logs cache hits periodically, null if not audited
+
+    /**
+     * Constructor for ClientSession object
+     *
+     * @param handler Shared client and channel
+     * @param clientUser Enrolled user
+     * @throws InvalidArgumentException if the endorser cache cannot listen for
+     * blocks
+     * @throws IOException if the outbox journal cannot be opened
+     */
+    ClientSession(CommunicationHandler handler, ClientUser clientUser) throws InvalidArgumentException, IOException {
+        this.handler = handler;
+        this.clientUser = clientUser;
+        this.organization = clientUser.getMspId().split("MSP")[0];
+        this.endorserCache = new EndorserCache(() -> queryProposal(Strings.INCENTIVE_CHAINCODE_NAME, Strings.INCENTIVE_CHAINCODE_FUNCTION_ENDORSER, new String[]{}), Long.valueOf(Strings.ENDORSER_CACHE_TTL), Boolean.valueOf(Strings.ENDORSER_CACHE_BACKGROUND_REFRESH) ? handler.getCacheRefresher() : null);
+        this.recordCache = Boolean.valueOf(Strings.RECORD_CACHE_ENABLED) ? new RecordCache(Integer.valueOf(Strings.RECORD_CACHE_SIZE)) : null;
+        if (handler.getChannel() != null) {
+            endorserCache.registerBlockListener(handler.getChannel());
+            if (recordCache != null) {
+                recordCache.registerBlockListener(handler.getChannel());
+            }
+        }
+        if (recordCache != null && Boolean.valueOf(Strings.RECORD_CACHE_AUDIT_HITS)) {
+            long interval = Long.valueOf(Strings.RECORD_CACHE_AUDIT_INTERVAL);
+            cachedReadsFlush = handler.getCacheRefresher().scheduleWithFixedDelay(this::logCachedReads, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            cachedReadsFlush = null;
+        }
+        if (Boolean.valueOf(Strings.OUTBOX_ENABLED) && handler.getChannel() != null) {
+            outbox = new TransactionOutbox(this, Paths.get(Strings.OUTBOX_DIRECTORY, clientUser.getAffiliation(), clientUser.getName() + ".journal"),
+                    Integer.valueOf(Strings.OUTBOX_SIZE), Long.valueOf(Strings.OUTBOX_RETRY_DELAY), Integer.valueOf(Strings.OUTBOX_MAX_ATTEMPTS));
+            outbox.start();
+        } else {
+            outbox = null;
+        }
+    }
+
+    /**
+     * Send transaction proposal request to endorser and evaluate the responses
+     *
+     * @param chaincodeName Name of chaincode
+     * @param function Chaincode function to invoke
+     * @param args Proposal arguments
+     * @return Proposal responses
+     * @throws InvalidArgumentException if arguments to the proposal are invalid
+     * @throws ProposalException if query or transaction proposal fails
+     * @throws ServiceDiscoveryException if no endorsers satisfy the
+     * discovered layouts
+     */
+    public Collection<ProposalResponse> transactionProposal(String chaincodeName, String function, String[] args) throws InvalidArgumentException, ProposalException, ServiceDiscoveryException {
+        Channel channel = handler.getChannel();
+        DiscoveryCache discoveryCache = handler.getDiscoveryCache();
+        PeerLatencyTracker peerLatency = handler.getPeerLatency();
+        TransactionProposalRequest request = handler.newProposalRequest(chaincodeName, function, args);
+        request.setUserContext(clientUser);
+        ClientMetrics metrics = handler.getMetrics();
+        Collection<ProposalResponse> response = null;
+        ServiceDiscovery.EndorsementSelector selector;
+        long lookup = System.nanoTime();
+        String endorser = endorserCache.get();
+        metrics.record(chaincodeName, function, ClientMetrics.Stage.ENDORSER_QUERY, System.nanoTime() - lookup);
+        LOG.info("Selected organization '" + endorser + "' for endorsing the transaction");
+        if (endorser != null) {
+            // send proposal to selected endorser organization
+            selector = handler.getSelector(chaincodeName).forOrganizations(endorser, organization);
+        } else {
+            // send proposal to random endorser organization
+            selector = handler.getRandomSelector();
+        }
+        // the selector is called on this thread once discovery has completed, which splits discovery from endorsement
+        final long[] selected = new long[1];
+        final ServiceDiscovery.EndorsementSelector endorsementSelector = selector;
+        ServiceDiscovery.EndorsementSelector timedSelector = (sdc) -> {
+            if (selected[0] == 0) {
+                selected[0] = System.nanoTime();
+            }
+            return endorsementSelector.endorserSelector(sdc);
+        };
+        peerLatency.begin();
+        long start = System.nanoTime();
+        try {
+            response = channel.sendTransactionProposalToEndorsers(request, discoveryCache.getDiscoveryOptions(chaincodeName, timedSelector));
+        } catch (ServiceDiscoveryException ex) {
+            // discovered layouts could not be satisfied, rediscover in case the topology has changed
+            LOG.info("Endorsement for chaincode '" + chaincodeName + "' failed. Rediscovering network topology", ex);
+            discoveryCache.invalidate(chaincodeName);
+            peerLatency.begin();
+            selected[0] = 0;
+            start = System.nanoTime();
+            response = channel.sendTransactionProposalToEndorsers(request, discoveryCache.getDiscoveryOptions(chaincodeName, timedSelector));
+        } finally {
+            long end = System.nanoTime();
+            // only the time from selecting the endorsers is charged to them, discovery is not
+            peerLatency.complete(response, selected[0] != 0 ? end - selected[0] : 0);
+            if (selected[0] != 0) {
+                metrics.record(chaincodeName, function, ClientMetrics.Stage.DISCOVERY, selected[0] - start);
+                metrics.record(chaincodeName, function, ClientMetrics.Stage.ENDORSEMENT, end - selected[0]);
+            }
+        }
+        // check if any responses were received
+        if (response.isEmpty()) {
+            LOG.error("No responses received");
+            return null;
+        }
+        // check if RW sets are consistent
+        long check = System.nanoTime();
+        Collection<Set<ProposalResponse>> consistencySets = SDKUtils.getProposalConsistencySets(response);
+        metrics.record(chaincodeName, function, ClientMetrics.Stage.CONSISTENCY_CHECK, System.nanoTime() - check);
+        if (consistencySets.size() != 1) {
+            LOG.error("Inconsistent RW sets. Transaction for chaincode '" + chaincodeName + "' not submitted.");
+            metrics.count(chaincodeName, function, ClientMetrics.Outcome.INCONSISTENT);
+            return null;
+        } else {
+            LOG.info("Transaction for chaincode '" + chaincodeName + "' submitted");
+            return response;
+        }
+    }
+
+    /**
+     * Submit a transaction without blocking the calling thread. The returned
+     * future chains endorsement, RW set consistency check, ordering and the
+     * commit event, and completes exceptionally if any of the stages fail.
+     * Commit events are delivered by the shared commit multiplexer, which also
+     * fails transactions not committed within the commit timeout.
+     * Endorsement and ordering run within the adaptive write window shared by
+     * all sessions. Submissions over the window wait for a slot, and fail
+     * with a RejectedExecutionException if none is free in time.
+     *
+     * @param chaincodeName Name of chaincode
+     * @param function Chaincode function to invoke
+     * @param args Proposal arguments
+     * @return Future completed with the committed transaction
+     */
+    public CompletableFuture<TransactionResult> submitAsync(String chaincodeName, String function, String[] args) {
+        return submitPending(chaincodeName, function, args, null).getCommitted();
+    }
+
+    /**
+     * Submit a transaction without blocking the calling thread, and pass its
+     * endorsed proposal responses to a callback before it is sent to the
+     * orderer
+     *
+     * @param chaincodeName Name of chaincode
+     * @param function Chaincode function to invoke
+     * @param args Proposal arguments
+     * @param onEndorsed Called with the proposal responses before ordering,
+     * may be null. An exception thrown by the callback fails the submission.
+     * @return Future completed with the committed transaction
+     */
+    CompletableFuture<TransactionResult> submitAsync(String chaincodeName, String function, String[] args, Consumer<Collection<ProposalResponse>> onEndorsed) {
+        return submitPending(chaincodeName, function, args, onEndorsed).getCommitted();
+    }
+
+    /**
+     * Submit a transaction without blocking the calling thread, with access
+     * to the proposal responses as soon as the transaction is endorsed. The
+     * transaction is ordered and committed as with
+     * {@link #submitAsync(String, String, String[])}.
+     *
+     * @param chaincodeName Name of chaincode
+     * @param function Chaincode function to invoke
+     * @param args Proposal arguments
+     * @return Transaction with futures for endorsement and commit
+     */
+    public PendingTransaction submitPending(String chaincodeName, String function, String[] args) {
+        return submitPending(chaincodeName, function, args, null);
+    }
+
+    private PendingTransaction submitPending(String chaincodeName, String function, String[] args, Consumer<Collection<ProposalResponse>> onEndorsed) {
+        final ConcurrencyLimiter limiter = handler.getWriteLimiter();
+        final ClientMetrics metrics = handler.getMetrics();
+        final long submitted = System.nanoTime();
+        final long[] permit = new long[1]; // start of the request holding a slot in the write window
+        CompletableFuture<Collection<ProposalResponse>> endorsed = CompletableFuture.supplyAsync(() -> {
+            permit[0] = limiter.acquire();
+            try {
+                Collection<ProposalResponse> response = transactionProposal(chaincodeName, function, args);
+                if (response == null) {
+                    throw new TransactionException("Transaction for chaincode '" + chaincodeName + "' was not endorsed");
+                }
+                return response;
+            } catch (ProposalException | ServiceDiscoveryException ex) {
+                // endorsement timed out or no endorsers answered, the peers may be overloaded
+                limiter.release(permit[0], true);
+                throw new CompletionException(ex);
+            } catch (InvalidArgumentException | TransactionException ex) {
+                limiter.release(permit[0], false);
+                throw new CompletionException(ex);
+            } catch (RuntimeException ex) {
+                limiter.release(permit[0], false);
+                throw ex;
+            }
+        }, handler.getProposalExecutor());
+        CompletableFuture<TransactionResult> future = endorsed.thenCompose((response) -> {
+            // register for the commit event before ordering, the block may arrive before the orderer acknowledges
+            String transactionId = response.iterator().next().getTransactionID();
+            CommitMultiplexer commits = handler.getCommitMultiplexer();
+            CompletableFuture<BlockEvent.TransactionEvent> committed;
+            CompletableFuture<BlockEvent.TransactionEvent> ordered;
+            long ordering;
+            try {
+                if (onEndorsed != null) {
+                    onEndorsed.accept(response);
+                }
+                committed = commits.register(transactionId);
+                ordering = System.nanoTime();
+                ordered = handler.getOrdererRouter().send(handler.getChannel(), response, clientUser);
+            } catch (RuntimeException ex) {
+                commits.cancel(transactionId);
+                limiter.release(permit[0], false);
+                throw ex;
+            }
+            if (ordered == null) {
+                commits.cancel(transactionId);
+                limiter.release(permit[0], true);
+                throw new CompletionException(new TransactionException("Transaction for chaincode '" + chaincodeName + "' not ordered"));
+            }
+            return ordered.handle((ack, ex) -> {
+                // the slot covers endorsement and ordering, the wait for commit does not load the peers or orderer
+                limiter.release(permit[0], ex != null);
+                if (ex != null) {
+                    commits.cancel(transactionId);
+                    throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+                }
+                return System.nanoTime();
+            }).thenCompose((acknowledged) -> {
+                metrics.record(chaincodeName, function, ClientMetrics.Stage.ORDERING, acknowledged - ordering);
+                return committed.thenApply((event) -> {
+                    metrics.record(chaincodeName, function, ClientMetrics.Stage.COMMIT, System.nanoTime() - acknowledged);
+                    if (!event.isValid()) {
+                        throw new CompletionException(new ValidationException(event.getTransactionID(), event.getValidationCode()));
+                    }
+                    return new TransactionResult(response, event);
+                });
+            });
+        });
+        future.whenComplete((result, ex) -> {
+            Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+            if (ex == null) {
+                metrics.record(chaincodeName, function, ClientMetrics.Stage.TOTAL, System.nanoTime() - submitted);
+                metrics.count(chaincodeName, function, ClientMetrics.Outcome.SUCCESS);
+                metrics.recordFirstTransaction();
+            } else if (cause instanceof ValidationException) {
+                metrics.count(chaincodeName, function, ClientMetrics.Outcome.INVALID);
+            } else if (cause instanceof TimeoutException) {
+                metrics.count(chaincodeName, function, ClientMetrics.Outcome.TIMEOUT);
+            } else if (cause instanceof RejectedExecutionException) {
+                metrics.count(chaincodeName, function, ClientMetrics.Outcome.REJECTED);
+            } else {
+                metrics.count(chaincodeName, function, ClientMetrics.Outcome.FAILURE);
+            }
+        });
+        return new PendingTransaction(endorsed, future);
+    }
+
+    /**
+     * Submit a write to a record. Writes to the same record are submitted one
+     * at a time, and writes failing with an MVCC or phantom read conflict are
+     * endorsed and submitted again.
+     *
+     * @param chaincodeName Name of chaincode
+     * @param function Chaincode function to invoke
+     * @param args Proposal arguments, the first argument is the record
+     * reference
+     * @return Future completed with the committed transaction
+     */
+    public CompletableFuture<TransactionResult> submitWrite(String chaincodeName, String function, String[] args) {
+        return submitWrite(chaincodeName, function, args, null);
+    }
+
+    /**
+     * Submit a write to a record, and pass the proposal responses of each
+     * attempt to a callback before it is sent to the orderer
+     *
+     * @param chaincodeName Name of chaincode
+     * @param function Chaincode function to invoke
+     * @param args Proposal arguments, the first argument is the record
+     * reference
+     * @param onEndorsed Called with the proposal responses before ordering,
+     * may be null
+     * @return Future completed with the committed transaction
+     */
+    CompletableFuture<TransactionResult> submitWrite(String chaincodeName, String function, String[] args, Consumer<Collection<ProposalResponse>> onEndorsed) {
+        return handler.getWriteScheduler().schedule(chaincodeName + "/" + args[0], chaincodeName, function, () -> submitAsync(chaincodeName, function, args, onEndorsed));
+    }
+
+    /**
+     * Send an endorsed transaction to the orderer again, with the same
+     * transaction ID. Fabric commits a transaction ID at most once, so if an
+     * earlier copy was committed, this copy is invalidated as a duplicate.
+     *
+     * @param responses Proposal responses of the transaction
+     * @return Future completed with the committed transaction
+     */
+    CompletableFuture<TransactionResult> resend(Collection<ProposalResponse> responses) {
+        String transactionId = responses.iterator().next().getTransactionID();
+        CommitMultiplexer commits = handler.getCommitMultiplexer();
+        CompletableFuture<BlockEvent.TransactionEvent> committed = commits.register(transactionId);
+        CompletableFuture<BlockEvent.TransactionEvent> ordered;
+        try {
+            ordered = handler.getOrdererRouter().send(handler.getChannel(), responses, clientUser);
+        } catch (RuntimeException ex) {
+            commits.cancel(transactionId);
+            throw ex;
+        }
+        return ordered.handle((ack, ex) -> {
+            if (ex != null) {
+                commits.cancel(transactionId);
+                throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+            }
+            return ack;
+        }).thenCompose((ack) -> committed).thenApply((event) -> {
+            if (!event.isValid()) {
+                throw new CompletionException(new ValidationException(event.getTransactionID(), event.getValidationCode()));
+            }
+            return new TransactionResult(responses, event);
+        });
+    }
+
+    /**
+     * Check whether a transaction writes to an existing record, and must be
+     * ordered with other writes to the record
+     *
+     * @param chaincodeName Name of chaincode
+     * @param function Chaincode function
+     * @return True if the transaction is a record write
+     */
+    public static boolean isRecordWrite(String chaincodeName, String function) {
+        return chaincodeName.equals(Strings.RRC_CHAINCODE_NAME) && (function.equals(Strings.RRC_CHAINCODE_FUNCTION_LOG) || function.equals(Strings.RRC_CHAINCODE_FUNCTION_UPDATE));
+    }
+
+    /**
+     * Read a record with the RecordRelationshipContract query. If the record
+     * cache is enabled, records are answered from the cache until a create,
+     * update or log transaction for them is committed. Cached reads are logged
+     * on the ledger in the background, with one log transaction per record for
+     * all its cached reads in an audit interval. Override reads always query
+     * the ledger.
+     *
+     * @param ref Record reference
+     * @param override True to override the permissions of the record
+     * @return Future completed with the record payload, or null if the query
+     * returned no payload
+     */
+    public CompletableFuture<String> readRecord(String ref, boolean override) {
+        return readRecord(ref, override, null);
+    }
+
+    /**
+     * Read a record with the RecordRelationshipContract query. With the read
+     * fast path enabled the payload is returned once the query transaction is
+     * endorsed and its RW sets are consistent, and the transaction, which is
+     * the audit log of the read, commits in the background. If it fails to
+     * commit it is submitted again through the outbox when enabled, and the
+     * callback is called if the read could not be logged.
+     *
+     * @param ref Record reference
+     * @param override True to override the permissions of the record
+     * @param onAuditFailure Called if the read could not be logged on the
+     * ledger, may be null
+     * @return Future completed with the record payload, or null if the query
+     * returned no payload
+     */
+    public CompletableFuture<String> readRecord(String ref, boolean override, Consumer<Throwable> onAuditFailure) {
+        if (recordCache != null && !override) {
+            String cached = recordCache.get(ref);
+            if (cached != null) {
+                if (cachedReadsFlush != null) {
+                    // the query transaction is the audit trail of the read, log the cached reads in its place
+                    cachedReads.compute(ref, (key, callbacks) -> {
+                        List<Consumer<Throwable>> reads = callbacks == null ? new ArrayList<>() : callbacks;
+                        reads.add(onAuditFailure);
+                        return reads;
+                    });
+                }
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        final long generation = recordCache == null ? 0 : recordCache.getGeneration(ref);
+        String[] args = new String[]{ref, override ? "1" : "0"};
+        if (Boolean.valueOf(Strings.READ_FAST_PATH)) {
+            PendingTransaction transaction = submitPending(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_QUERY, args);
+            // a read that was not endorsed did not happen and is not logged
+            transaction.getEndorsed().thenRun(() -> audit(ref, transaction.getCommitted(), Strings.RRC_CHAINCODE_FUNCTION_QUERY, args, onAuditFailure));
+            return transaction.getEndorsed().thenApply((response) -> getPayload(ref, override, response, generation));
+        }
+        return submitAsync(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_QUERY, args).thenApply((result) -> getPayload(ref, override, result.getProposalResponses(), generation));
+    }
+
+    /**
+     * Log the cached reads of each record since the last call with one log
+     * transaction per record. The log transaction invalidates the record once
+     * committed, so a record read from the cache is queried again at most once
+     * per audit interval.
+     */
+    private void logCachedReads() {
+        for (String ref : cachedReads.keySet()) {
+            List<Consumer<Throwable>> callbacks = cachedReads.remove(ref);
+            if (callbacks == null) {
+                continue;
+            }
+            // cached reads are never override reads
+            String[] args = new String[]{ref, Strings.EVENT_READ, callbacks.size() + " reads from client cache, override 0"};
+            Consumer<Throwable> onAuditFailure = (ex) -> callbacks.stream().filter((callback) -> callback != null).forEach((callback) -> callback.accept(ex));
+            try {
+                audit(ref, submitWrite(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_LOG, args), Strings.RRC_CHAINCODE_FUNCTION_LOG, args, onAuditFailure);
+            } catch (RuntimeException ex) {
+                LOG.error("Could not log cached reads of record '" + ref + "'", ex);
+                onAuditFailure.accept(ex);
+            }
+        }
+    }
+
+    /**
+     * Track the audit transaction of a read until it is committed
+     *
+     * @param function Function of the audit transaction
+     * @param args Arguments of the audit transaction to submit through the
+     * outbox if the audit fails, or null to not resubmit
+     */
+    private void audit(String ref, CompletableFuture<TransactionResult> committed, String function, String[] args, Consumer<Throwable> onAuditFailure) {
+        audits.add(committed);
+        committed.whenComplete((result, ex) -> {
+            audits.remove(committed);
+            if (ex == null) {
+                return;
+            }
+            if (args != null && outbox != null) {
+                LOG.info("Read of record '" + ref + "' not logged (" + ex.getMessage() + "). Resubmitting through the outbox");
+                try {
+                    // each read is logged, so reads of the same record must not share an entry
+                    audit(ref, outbox.submit(UUID.randomUUID().toString(), Strings.RRC_CHAINCODE_NAME, function, args), function, null, onAuditFailure);
+                    return;
+                } catch (IOException ioe) {
+                    LOG.error("Could not store read of record '" + ref + "' in the outbox", ioe);
+                }
+            }
+            LOG.error("Could not log read of record '" + ref + "'", ex);
+            if (onAuditFailure != null) {
+                onAuditFailure.accept(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            }
+        });
+    }
+
+    /**
+     * Get the record payload from the proposal responses of a query, and
+     * cache it if it is not an override read
+     */
+    private String getPayload(String ref, boolean override, Collection<ProposalResponse> response, long generation) {
+        String payload;
+        try {
+            payload = new String(response.iterator().next().getChaincodeActionResponsePayload());
+        } catch (InvalidArgumentException ex) {
+            LOG.info("Query returned no payload");
+            return null;
+        }
+        if (recordCache != null && !override) {
+            recordCache.put(ref, payload, generation);
+        }
+        return payload;
+    }
+
+    /**
+     * Query state database. With query hedging enabled the query is sent to
+     * one peer, and to a second peer if the first is slow to answer. With
+     * query coalescing enabled, identical queries in flight at the same time
+     * share one proposal. Queries of the incentive mechanism are shared
+     * across sessions, other queries only within the session since their
+     * results may depend on the permissions of the user.
+     *
+     * @param chaincodeName Name of chaincode
+     * @param functionName Name of chaincode function
+     * @param args Query arguments
+     * @return Array of query results
+     * @throws InvalidArgumentException if arguments to the proposal are invalid
+     * @throws ProposalException if query proposal fails
+     */
+    public String queryProposal(String chaincodeName, String functionName, String[] args) throws InvalidArgumentException, ProposalException {
+        if (!Boolean.valueOf(Strings.QUERY_COALESCING_ENABLED)) {
+            return sendQuery(chaincodeName, functionName, args);
+        }
+        List<String> key = new ArrayList<>(args.length + 3);
+        key.add(chaincodeName);
+        key.add(functionName);
+        key.add(chaincodeName.equals(Strings.INCENTIVE_CHAINCODE_NAME) ? "" : clientUser.getMspId() + "/" + clientUser.getName());
+        key.addAll(Arrays.asList(args));
+        try {
+            return handler.getQueries().execute(key, () -> sendQuery(chaincodeName, functionName, args));
+        } catch (InvalidArgumentException | ProposalException | RuntimeException ex) {
+            throw ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ProposalException("Interrupted while waiting for query", ex);
+        } catch (Exception ex) {
+            throw new ProposalException(ex);
+        }
+    }
+
+    /**
+     * Send a query proposal
+     */
+    private String sendQuery(String chaincodeName, String functionName, String[] args) throws InvalidArgumentException, ProposalException {
+        QueryByChaincodeRequest qpr = handler.getClient().newQueryProposalRequest();
+        ChaincodeID chaincode = ChaincodeID.newBuilder().setName(chaincodeName).build();
+        qpr.setChaincodeID(chaincode);
+        qpr.setFcn(functionName); // chaincode function to be called
+        qpr.setArgs(args); // chaincode arguments to be passed
+        qpr.setProposalWaitTime(Integer.valueOf(Strings.PROPOSAL_TIMEOUT));
+        qpr.setUserContext(clientUser);
+        Channel channel = handler.getChannel();
+        ConcurrencyLimiter limiter = handler.getQueryLimiter();
+        long start = limiter.acquire();
+        boolean dropped = true; // cleared once a peer has answered
+        try {
+            String payload = null;
+            if (Boolean.valueOf(Strings.QUERY_HEDGING_ENABLED)) {
+                payload = handler.getHedgedQuery().query(channel, qpr, channel.getPeers(EnumSet.of(Peer.PeerRole.CHAINCODE_QUERY)));
+            } else {
+                // send to one peer, querying every peer would multiply the load with the number of peers
+                List<Peer> peers = handler.getHedgedQuery().order(channel.getPeers(EnumSet.of(Peer.PeerRole.CHAINCODE_QUERY)));
+                if (peers.isEmpty()) {
+                    throw new InvalidArgumentException("No peers to query");
+                }
+                Collection<ProposalResponse> response = channel.queryByChaincode(qpr, peers.subList(0, 1)); // issue query proposal
+                for (ProposalResponse pr : response) {
+                    try {
+                        payload = new String(pr.getChaincodeActionResponsePayload()); // response payload
+                    } catch (InvalidArgumentException e) {
+                        LOG.info("Query returned no payload");
+                    }
+                    break;
+                }
+            }
+            dropped = false;
+            return payload;
+        } finally {
+            limiter.release(start, dropped);
+            handler.getMetrics().record(chaincodeName, functionName, ClientMetrics.Stage.QUERY, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get user of the session
+     *
+     * @return Enrolled user
+     */
+    public ClientUser getClientUser() {
+        return clientUser;
+    }
+
+    /**
+     * Get cache for the endorser organization selected by the incentive
+     * mechanism
+     *
+     * @return Endorser cache
+     */
+    public EndorserCache getEndorserCache() {
+        return endorserCache;
+    }
+
+    /**
+     * Get cache for records read by the user
+     *
+     * @return Record cache, null if disabled
+     */
+    public RecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    /**
+     * Get outbox for transactions of the user
+     *
+     * @return Transaction outbox, null if disabled
+     */
+    public TransactionOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Get shared client and channel
+     *
+     * @return Communication handler
+     */
+    CommunicationHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Close the session and stop listening for blocks. Waits until the audit
+     * logs of reads in flight, including cached reads not yet logged, are
+     * committed or the commit timeout expires.
+     */
+    public void close() {
+        if (cachedReadsFlush != null) {
+            cachedReadsFlush.cancel(false);
+            logCachedReads();
+        }
+        if (!audits.isEmpty()) {
+            LOG.info("Waiting for " + audits.size() + " reads to be logged");
+            try {
+                CompletableFuture.allOf(audits.toArray(new CompletableFuture<?>[0])).get(Long.valueOf(Strings.COMMIT_TIMEOUT), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException ex) {
+                LOG.error("Not all reads were logged before the session closed", ex);
+            }
+        }
+        if (outbox != null) {
+            outbox.close();
+        }
+        endorserCache.close();
+        if (recordCache != null) {
+            recordCache.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+
+/**
+ * Tracks commit of submitted transactions with a single block listener. Each
+ * block is decoded once and completes the pending transactions it contains,
+ * so the cost of commit tracking grows with the number of blocks rather than
+ * the number of transactions. Transactions without a commit event within the
+ * timeout are failed in bulk by a periodic sweep.
+ *
+ * A transaction must be registered before it is sent to the orderer, since
+ * its block may arrive before the orderer acknowledges it.
+ *
+ * @author kehm
+ */
+public class CommitMultiplexer {
+
+    private static final Logger LOG = Logger.getLogger(CommitMultiplexer.class);
+
+    private final Channel channel;
+    private final long timeout; // commit timeout in milliseconds
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>(); // pending transactions by transaction ID
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread thread = new Thread(r, "commit-timeout-sweep");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private String blockListenerHandle;
+
+    /**
+     * Constructor for CommitMultiplexer object
+     *
+     * @param channel Channel to listen on
+     * @param timeout Commit timeout in milliseconds
+     * @param sweepInterval Interval between timeout sweeps in milliseconds
+     */
+    public CommitMultiplexer(Channel channel, long timeout, long sweepInterval) {
+        this.channel = channel;
+        this.timeout = timeout;
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start listening for blocks
+     *
+     * @throws InvalidArgumentException if the block listener cannot be
+     * registered
+     */
+    public void registerBlockListener() throws InvalidArgumentException {
+        blockListenerHandle = channel.registerBlockListener(this::complete);
+    }
+
+    /**
+     * Register a transaction before it is sent to the orderer
+     *
+     * @param transactionId Transaction ID
+     * @return Future completed with the commit event of the transaction, or
+     * exceptionally with a TimeoutException if the transaction is not
+     * committed within the timeout
+     */
+    public CompletableFuture<BlockEvent.TransactionEvent> register(String transactionId) {
+        Pending transaction = new Pending(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+        Pending previous = pending.putIfAbsent(transactionId, transaction);
+        return previous != null ? previous.future : transaction.future;
+    }
+
+    /**
+     * Stop tracking a transaction, for example if it could not be ordered
+     *
+     * @param transactionId Transaction ID
+     */
+    public void cancel(String transactionId) {
+        pending.remove(transactionId);
+    }
+
+    /**
+     * Get number of transactions waiting for commit
+     *
+     * @return Pending transactions
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Unregister the block listener and fail all pending transactions
+     */
+    public void close() {
+        if (blockListenerHandle != null) {
+            try {
+                channel.unregisterBlockListener(blockListenerHandle);
+            } catch (InvalidArgumentException ex) {
+                LOG.error("Could not unregister commit block listener", ex);
+            }
+        }
+        sweeper.shutdownNow();
+        for (Iterator<Pending> it = pending.values().iterator(); it.hasNext();) {
+            it.next().future.completeExceptionally(new IllegalStateException("Commit tracking closed"));
+            it.remove();
+        }
+    }
+
+    /**
+     * Complete the pending transactions of a block
+     */
+    private void complete(BlockEvent blockEvent) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        for (BlockEvent.TransactionEvent transactionEvent : blockEvent.getTransactionEvents()) {
+            Pending transaction = pending.remove(transactionEvent.getTransactionID());
+            if (transaction != null) {
+                transaction.future.complete(transactionEvent);
+            }
+        }
+    }
+
+    /**
+     * Fail transactions past their deadline
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        int expired = 0;
+        for (Iterator<Map.Entry<String, Pending>> it = pending.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Pending> entry = it.next();
+            if (now - entry.getValue().deadline >= 0) {
+                it.remove();
+                entry.getValue().future.completeExceptionally(new TimeoutException("Transaction '" + entry.getKey() + "' not committed within " + timeout + " ms"));
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            LOG.error(expired + " transactions not committed within " + timeout + " ms");
+        }
+    }
+
+    /**
+     * Transaction waiting for commit
+     */
+    private static class Pending {
+
+        private final CompletableFuture<BlockEvent.TransactionEvent> future = new CompletableFuture<>();
+        private final long deadline; // System.nanoTime() deadline
+
+        private Pending(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+}
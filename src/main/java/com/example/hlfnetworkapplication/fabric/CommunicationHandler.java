@@ -1,32 +1,48 @@
 /* SPDX-License-Identifier: Apache-2.0 */
 package com.example.hlfnetworkapplication.fabric;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.Collection;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import org.apache.log4j.Logger;
 import org.hyperledger.fabric.sdk.BlockchainInfo;
 import org.hyperledger.fabric.sdk.ChaincodeID;
 import org.hyperledger.fabric.sdk.HFClient;
-import org.hyperledger.fabric.sdk.ProposalResponse;
-import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
 import org.hyperledger.fabric.sdk.TransactionProposalRequest;
 import org.hyperledger.fabric.sdk.TransactionRequest.Type;
+import org.hyperledger.fabric.sdk.User;
 import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
 import org.hyperledger.fabric.sdk.exception.ProposalException;
 import org.hyperledger.fabric.sdk.Channel;
 import org.hyperledger.fabric.sdk.Enrollment;
 import org.hyperledger.fabric.sdk.Peer;
-import org.hyperledger.fabric.sdk.SDKUtils;
 import org.hyperledger.fabric.sdk.exception.CryptoException;
 import org.hyperledger.fabric.sdk.exception.TransactionException;
 import org.hyperledger.fabric.sdk.security.CryptoSuite;
@@ -37,11 +53,15 @@ import org.hyperledger.fabric_ca.sdk.exception.RegistrationException;
 import org.hyperledger.fabric.sdk.Channel.PeerOptions;
 import org.hyperledger.fabric.sdk.Peer.PeerRole;
 import org.hyperledger.fabric.sdk.ServiceDiscovery;
-import org.hyperledger.fabric.sdk.exception.ServiceDiscoveryException;
+import com.example.hlfnetworkapplication.metrics.ClientMetrics;
+import com.example.hlfnetworkapplication.metrics.MetricsExporter;
+import com.example.hlfnetworkapplication.util.SingleFlight;
 import com.example.hlfnetworkapplication.util.Strings;
 
 /**
- * Class to handle communication with the Fabric blockchain
+ * Class to handle communication with the Fabric blockchain. Holds the client,
+ * channel and peer connections shared by all sessions. Transactions are
+ * submitted through a {@link ClientSession} for each enrolled user.
  *
  * @author kehm
  */
@@ -49,9 +69,38 @@ public class CommunicationHandler {
 
     private static final Logger LOG = Logger.getLogger(CommunicationHandler.class);
 
-    private static HFClient client; // Fabric client object for invoking operations on the channel
-    private static HFCAClient caClient; // Fabric CA client for enrollment operations
-    private static Channel channel; // Channel to invoke operations on
+    private HFClient client; // Fabric client object for invoking operations on the channel
+    private volatile Channel channel; // Channel to invoke operations on
+    private DiscoveryCache discoveryCache; // Service discovery results for each chaincode
+    private CommitMultiplexer commitMultiplexer; // commit events of submitted transactions
+    private final Map<String, EndorserSelector> selectors = new ConcurrentHashMap<>(); // significance selector for each chaincode
+    private final PeerLatencyTracker peerLatency = new PeerLatencyTracker(Double.valueOf(Strings.ENDORSER_PROBE_RATE)); // proposal latency for each peer
+    private final ClientMetrics metrics = new ClientMetrics(); // stage latency and transaction outcomes
+    private MetricsExporter metricsExporter;
+    private final WriteScheduler writeScheduler = new WriteScheduler(metrics, Integer.valueOf(Strings.WRITE_MAX_RETRIES), Long.valueOf(Strings.WRITE_RETRY_BACKOFF), Long.valueOf(Strings.WRITE_RETRY_MAX_BACKOFF)); // writes ordered by record
+    private final HedgedQuery hedgedQuery = new HedgedQuery(peerLatency, Double.valueOf(Strings.QUERY_HEDGE_PERCENTILE), Long.valueOf(Strings.QUERY_HEDGE_MIN_DELAY), Long.valueOf(Strings.QUERY_HEDGE_INITIAL_DELAY)); // queries racing across peers
+    private final boolean latencyAware = Boolean.valueOf(Strings.ENDORSER_SELECTION_LATENCY_AWARE);
+    private final ServiceDiscovery.EndorsementSelector randomSelector = latencyAware ? peerLatency.newRandomLayoutSelector() : ServiceDiscovery.EndorsementSelector.ENDORSEMENT_SELECTION_RANDOM;
+    private volatile ConcurrencyLimiter writeLimiter = newLimiter("write", Integer.valueOf(Strings.SUBMIT_INITIAL_IN_FLIGHT), Integer.valueOf(Strings.SUBMIT_MAX_IN_FLIGHT)); // adaptive window of transactions in endorsement or ordering
+    private final SingleFlight<List<String>, String> queries = new SingleFlight<>(); // identical queries in flight
+    private final CaClientPool caClients = new CaClientPool(); // CA clients and registrars shared by all enrollments
+    private CredentialStore credentialStore; // enrolled users, opened on first use, guarded by credentialLock
+    private final Object credentialLock = new Object();
+    private volatile StartupCache startupCache = new StartupCache(); // channel state of the last run, loaded by the warm-up
+    private User channelUser; // user the channel was initialized with, guarded by this
+    private CompletableFuture<Long> warmUp; // channel length once warmed up, null until warm-up is started
+    private final OrdererRouter ordererRouter = new OrdererRouter(Long.valueOf(Strings.ORDERER_DOWN_TIME)); // orderer with the lowest latency
+    private final ConcurrencyLimiter queryLimiter = newLimiter("query", Integer.valueOf(Strings.QUERY_INITIAL_IN_FLIGHT), Integer.valueOf(Strings.QUERY_MAX_IN_FLIGHT)); // adaptive window of chaincode queries
+    private final ExecutorService proposalExecutor = Executors.newFixedThreadPool(Integer.valueOf(Strings.SUBMIT_PROPOSAL_THREADS), (r) -> {
+        Thread thread = new Thread(r, "proposal-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService cacheRefresher = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread thread = new Thread(r, "endorser-cache-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     Type CHAINCODE_TYPE = Type.JAVA;
 
@@ -61,6 +110,15 @@ public class CommunicationHandler {
     public CommunicationHandler() {
     }
 
+    /**
+     * Constructor for CommunicationHandler with a prepared Fabric client
+     *
+     * @param client Fabric client
+     */
+    CommunicationHandler(HFClient client) {
+        this.client = client;
+    }
+
     /**
      * Prepare Fabric client object
      *
@@ -74,17 +132,163 @@ public class CommunicationHandler {
      * @throws InvalidArgumentException if Fabric client cannot use the selected
      * crypto suite
      */
-    public static void prepareClient() throws IllegalAccessException, InstantiationException, ClassNotFoundException, InvocationTargetException, NoSuchMethodException, CryptoException, InvalidArgumentException {
+    public void prepareClient() throws IllegalAccessException, InstantiationException, ClassNotFoundException, InvocationTargetException, NoSuchMethodException, CryptoException, InvalidArgumentException {
         System.setProperty("javax.net.ssl.trustStore", CommunicationHandler.class.getClassLoader().getResource(Strings.TRUSTSTORE_FILENAME).getPath());
         System.setProperty("javax.net.ssl.trustStorePassword", Strings.TRUSTSTORE_PASS);
         System.setProperty("javax.net.ssl.trustStoreType", Strings.TRUSTSTORE_TYPE);
         client = HFClient.createNewInstance();
         client.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
+        startMetrics();
+    }
+
+    /**
+     * Register metrics with JMX and start the configured exports
+     */
+    private void startMetrics() {
+        if (metricsExporter != null) {
+            return;
+        }
+        if (Boolean.valueOf(Strings.METRICS_JMX_ENABLED)) {
+            metrics.registerMBeans();
+        }
+        metricsExporter = new MetricsExporter(metrics);
+        int port = Integer.valueOf(Strings.METRICS_HTTP_PORT);
+        if (port > 0) {
+            try {
+                metricsExporter.startServer(port);
+            } catch (IOException ex) {
+                LOG.error("Could not serve metrics on port " + port, ex);
+            }
+        }
+        if (!Strings.METRICS_FILE.isEmpty()) {
+            metricsExporter.startFileDump(Strings.METRICS_FILE, Long.valueOf(Strings.METRICS_FILE_INTERVAL));
+        }
     }
 
     /**
-     * Initialize channel object
+     * Warm up the client in the background, before a user has enrolled. The
+     * crypto suite and truststore are prepared while the startup cache is
+     * read and the credential store is opened. The channel is then initialized with the user enrolled in the
+     * last run, which connects to the peers and orderers of the last run and
+     * runs the network discovery of the SDK, so that the first transaction
+     * does not wait for channel initialization. The layouts of a chaincode
+     * are discovered by its first proposal.
      *
+     * @return Future completed with the channel length, or with null if no
+     * user was enrolled in the last run
+     */
+    public synchronized CompletableFuture<Long> warmUp() {
+        if (warmUp != null) {
+            return warmUp;
+        }
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(2, (r) -> {
+            Thread thread = new Thread(r, "warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletableFuture<Void> prepared = CompletableFuture.runAsync(() -> {
+            try {
+                prepareClient();
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+        CompletableFuture<ClientUser> lastUser = CompletableFuture.supplyAsync(() -> {
+            if (Boolean.valueOf(Strings.STARTUP_CACHE_ENABLED)) {
+                startupCache = StartupCache.load(Paths.get(Strings.STARTUP_CACHE_FILENAME));
+            }
+            try {
+                CredentialStore store = getCredentialStore();
+                return startupCache.getUserAffiliation() == null ? null : store.get(startupCache.getUserAffiliation(), startupCache.getUserName());
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+        warmUp = prepared.thenCombine(lastUser, (none, clientUser) -> clientUser).thenApplyAsync((clientUser) -> {
+            if (clientUser == null) {
+                LOG.info("No user from last run. Channel is initialized after enrollment");
+                return null;
+            }
+            try {
+                return initChannel(clientUser);
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+        warmUp.whenComplete((length, ex) -> {
+            executor.shutdown();
+            if (ex != null) {
+                LOG.error("Warm-up failed. Channel is initialized after enrollment", ex);
+            } else {
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                metrics.recordWarmUp(millis);
+                LOG.info("Warmed up in " + millis + " ms");
+            }
+        });
+        return warmUp;
+    }
+
+    /**
+     * Wait for the warm-up to initialize the channel, or initialize it with
+     * the given user if the warm-up did not. The warm-up initializes the
+     * channel with the user of the last run, so if another user enrolls, the
+     * channel is initialized again with that user. Sessions opened before
+     * must then be closed and opened again.
+     *
+     * @param channelUser User for channel level requests
+     * @return Channel length
+     * @throws InterruptedException if interrupted while waiting
+     * @throws Exception if the client or channel cannot be initialized
+     */
+    public long awaitChannel(User channelUser) throws InterruptedException, Exception {
+        CompletableFuture<Long> pending;
+        synchronized (this) {
+            pending = warmUp;
+        }
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (ExecutionException ex) {
+                // logged by the warm-up, initialize on this thread instead
+            }
+        }
+        synchronized (this) {
+            if (client == null) {
+                prepareClient();
+            }
+            if (channel == null) {
+                return initChannel(channelUser);
+            }
+            if (!isSameUser(this.channelUser, channelUser)) {
+                LOG.info("Channel was initialized with user '" + this.channelUser.getName() + "'. Initializing it again with user '" + channelUser.getName() + "'");
+                return initChannel(channelUser);
+            }
+        }
+        return channel.queryBlockchainInfo().getHeight();
+    }
+
+    private static boolean isSameUser(User user, User other) {
+        return user.getName().equals(other.getName()) && Objects.equals(user.getAffiliation(), other.getAffiliation()) && Objects.equals(user.getMspId(), other.getMspId());
+    }
+
+    /**
+     * Initialize channel object with the peers and orderers listed in the
+     * topology files. The channel user signs channel level requests such as
+     * service discovery and event registration. Transactions are signed by
+     * the user of each session.
+     *
+     * Each line of the peers file is name;url, optionally followed by
+     * ;roles with a comma separated list of discovery, ledger, events and
+     * query. Peers without roles take all of them. Each line of the orderers
+     * file is name;url. Orderers found by service discovery are added to the
+     * channel as well.
+     *
+     * A channel initialized before is shut down first, with its discovery
+     * cache and commit tracking. Transactions waiting for a commit event on it
+     * fail. Sessions opened on it must be closed and opened again.
+     *
+     * @param channelUser User for channel level requests
      * @return Channel length
      * @throws InvalidArgumentException if any argument is invalid
      * @throws TransactionException if channel initialization fails
@@ -92,18 +296,133 @@ public class CommunicationHandler {
      * @throws FileNotFoundException if file path is invalid
      * @throws IOException if file stream cannot be opened
      */
-    public static long initChannel() throws InvalidArgumentException, TransactionException, ProposalException, FileNotFoundException, IOException {
-        channel = client.newChannel(Strings.CHANNEL_NAME);
-        Peer discoveryPeer = client.newPeer("peer0.hospital1.example.com", "grpcs://172.18.0.40:7051");
-        channel.addPeer(discoveryPeer, PeerOptions.createPeerOptions().setPeerRoles(EnumSet.of(PeerRole.SERVICE_DISCOVERY, PeerRole.LEDGER_QUERY, PeerRole.EVENT_SOURCE, PeerRole.CHAINCODE_QUERY)));
-        channel.initialize();
+    public synchronized long initChannel(User channelUser) throws InvalidArgumentException, TransactionException, ProposalException, FileNotFoundException, IOException {
+        closeChannel();
+        client.setUserContext(channelUser);
+        Channel newChannel = client.newChannel(Strings.CHANNEL_NAME);
+        for (String[] peer : readTopology(Strings.PEERS_FILENAME)) {
+            newChannel.addPeer(client.newPeer(peer[0], peer[1]), PeerOptions.createPeerOptions().setPeerRoles(peer.length > 2 ? getPeerRoles(peer[2]) : EnumSet.of(PeerRole.SERVICE_DISCOVERY, PeerRole.LEDGER_QUERY, PeerRole.EVENT_SOURCE, PeerRole.CHAINCODE_QUERY)));
+        }
+        if (newChannel.getPeers().isEmpty()) {
+            throw new InvalidArgumentException("No peers in '" + Strings.PEERS_FILENAME + "'");
+        }
+        Set<String> known = new HashSet<>();
+        newChannel.getPeers().forEach((peer) -> {
+            known.add(peer.getName());
+            known.add(peer.getUrl());
+        });
+        for (String[] peer : startupCache.getPeers()) {
+            // peers discovered in the last run can endorse before discovery completes
+            if (known.add(peer[0]) && known.add(peer[1])) {
+                newChannel.addPeer(client.newPeer(peer[0], peer[1]), PeerOptions.createPeerOptions().setPeerRoles(EnumSet.of(PeerRole.ENDORSING_PEER, PeerRole.CHAINCODE_QUERY)));
+            }
+        }
+        for (String[] orderer : readTopology(Strings.ORDERERS_FILENAME)) {
+            newChannel.addOrderer(client.newOrderer(orderer[0], orderer[1]));
+            known.add(orderer[0]);
+            known.add(orderer[1]);
+        }
+        for (String[] orderer : startupCache.getOrderers()) {
+            if (known.add(orderer[0]) && known.add(orderer[1])) {
+                newChannel.addOrderer(client.newOrderer(orderer[0], orderer[1]));
+            }
+        }
+        newChannel.initialize();
+        LOG.info("Channel '" + newChannel.getName() + "' with " + newChannel.getPeers().size() + " peers and " + newChannel.getOrderers().size() + " orderers");
+        discoveryCache = new DiscoveryCache(newChannel, Long.valueOf(Strings.DISCOVERY_REFRESH_INTERVAL));
+        discoveryCache.registerBlockListener();
+        commitMultiplexer = new CommitMultiplexer(newChannel, Long.valueOf(Strings.COMMIT_TIMEOUT), Long.valueOf(Strings.COMMIT_SWEEP_INTERVAL));
+        commitMultiplexer.registerBlockListener();
+        channel = newChannel;
+        this.channelUser = channelUser;
+        startupCache.setTopology(newChannel);
+        saveStartupCache();
         BlockchainInfo channelInfo = channel.queryBlockchainInfo();
         LOG.info("Channel '" + channel.getName() + "'. Length: " + channelInfo.getHeight());
         return channelInfo.getHeight();
     }
 
     /**
-     * Enroll a user and set user context
+     * Shut down the channel and the components listening on it, if
+     * initialized. The orderer router is not bound to a channel and is kept.
+     */
+    private synchronized void closeChannel() {
+        if (discoveryCache != null) {
+            discoveryCache.close();
+            discoveryCache = null;
+        }
+        if (commitMultiplexer != null) {
+            commitMultiplexer.close();
+            commitMultiplexer = null;
+        }
+        if (channel != null) {
+            LOG.info("Shutting down channel '" + channel.getName() + "'");
+            channel.shutdown(true);
+            channel = null;
+            channelUser = null;
+        }
+    }
+
+    /**
+     * Read a topology file from the classpath. Empty lines and lines starting
+     * with # are ignored.
+     *
+     * @param filename Name of the file
+     * @return Fields of each line, at least name and URL
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    private static List<String[]> readTopology(String filename) throws FileNotFoundException, IOException {
+        InputStream in = CommunicationHandler.class.getClassLoader().getResourceAsStream(filename);
+        if (in == null) {
+            throw new FileNotFoundException("Could not find '" + filename + "'");
+        }
+        List<String[]> entries = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] args = line.split(";");
+                if (args.length < 2) {
+                    throw new IOException("Expected name;url in '" + filename + "' but got '" + line + "'");
+                }
+                entries.add(args);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Map a comma separated list of role names to peer roles
+     */
+    private static EnumSet<PeerRole> getPeerRoles(String names) throws InvalidArgumentException {
+        EnumSet<PeerRole> roles = EnumSet.noneOf(PeerRole.class);
+        for (String name : names.split(",")) {
+            switch (name.trim().toLowerCase()) {
+                case "discovery":
+                    roles.add(PeerRole.SERVICE_DISCOVERY);
+                    break;
+                case "ledger":
+                    roles.add(PeerRole.LEDGER_QUERY);
+                    break;
+                case "events":
+                    roles.add(PeerRole.EVENT_SOURCE);
+                    break;
+                case "query":
+                    roles.add(PeerRole.CHAINCODE_QUERY);
+                    break;
+                default:
+                    throw new InvalidArgumentException("Unknown peer role '" + name + "'");
+            }
+        }
+        return roles;
+    }
+
+    /**
+     * Enroll a user, or read the user from file if already enrolled
      *
      * @param userName User name
      * @param caName Name of the CA
@@ -112,97 +431,130 @@ public class CommunicationHandler {
      * @param registrarPass Registrar password
      * @param affiliation Associated affiliation
      * @param msp Associated msp
+     * @return Enrolled user
      * @throws MalformedURLException if URL is invalid
      * @throws InvalidArgumentException if user object is malformed
      * @throws EnrollmentException if the ca client cannot enroll
      * @throws Exception if an unspecified error occurs
      */
-    public static void setContext(String userName, String caName, String caUrl, String registrarName, String registrarPass, String affiliation, String msp) throws MalformedURLException, InvalidArgumentException, EnrollmentException, Exception {
-        caClient = HFCAClient.createNewInstance(caName, caUrl, null);
-        caClient.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
-        ClientUser registrar = getClientUser(registrarName, null, registrarPass, affiliation, msp); // get user (for testing purposes, do not store user in production)
-        ClientUser clientUser = getClientUser(userName, registrar, null, affiliation, msp); // get user (for testing purposes, do not store user in production)
-        client.setUserContext(clientUser);
+    public ClientUser enroll(String userName, String caName, String caUrl, String registrarName, String registrarPass, String affiliation, String msp) throws MalformedURLException, InvalidArgumentException, EnrollmentException, Exception {
+        HFCAClient caClient = caClients.getClient(caName, caUrl);
+        ClientUser registrar = getRegistrar(caClient, caName, registrarName, registrarPass, affiliation, msp);
+        return getClientUser(caClient, userName, registrar, null, affiliation, msp); // get user (for testing purposes, do not store user in production)
+    }
+
+    /**
+     * Register and enroll users in parallel, or read them from file if already
+     * enrolled. The CA client and registrar are shared by all users.
+     *
+     * @param userNames User names
+     * @param caName Name of the CA
+     * @param caUrl URL of the CA
+     * @param registrarName Registrar name
+     * @param registrarPass Registrar password
+     * @param affiliation Associated affiliation
+     * @param msp Associated msp
+     * @param concurrency Maximum number of users enrolled at once
+     * @return Result for each user, in the order of the user names
+     * @throws InterruptedException if interrupted while waiting
+     * @throws Exception if the registrar cannot be enrolled
+     */
+    public List<EnrollmentResult> enrollAll(List<String> userNames, String caName, String caUrl, String registrarName, String registrarPass, String affiliation, String msp, int concurrency) throws InterruptedException, Exception {
+        HFCAClient caClient = caClients.getClient(caName, caUrl);
+        ClientUser registrar = getRegistrar(caClient, caName, registrarName, registrarPass, affiliation, msp);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, userNames.size())), (r) -> {
+            Thread thread = new Thread(r, "enrollment-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<EnrollmentResult>> futures = new ArrayList<>();
+            for (String userName : userNames) {
+                futures.add(executor.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        ClientUser clientUser = getClientUser(caClient, userName, registrar, null, affiliation, msp);
+                        return new EnrollmentResult(userName, clientUser, null, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    } catch (Exception ex) {
+                        LOG.error("Could not enroll user '" + userName + "'", ex);
+                        return new EnrollmentResult(userName, null, ex, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                }));
+            }
+            List<EnrollmentResult> results = new ArrayList<>();
+            for (Future<EnrollmentResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ex) {
+                    // the task catches all exceptions
+                    throw new IllegalStateException(ex.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     /**
-     * Send transaction proposal request to endorser and evaluate the responses
+     * Get registrar from the CA client pool, or enroll it and add it to the
+     * pool
+     */
+    private ClientUser getRegistrar(HFCAClient caClient, String caName, String registrarName, String registrarPass, String affiliation, String msp) throws Exception {
+        // get user (for testing purposes, do not store user in production)
+        return caClients.getRegistrar(caName, registrarName, affiliation, () -> getClientUser(caClient, registrarName, null, registrarPass, affiliation, msp));
+    }
+
+    /**
+     * Open a session for an enrolled user. Sessions share the channel and its
+     * peer connections, and can submit transactions in parallel.
+     *
+     * @param clientUser Enrolled user
+     * @return Session for the user
+     * @throws InvalidArgumentException if the session cannot listen for blocks
+     * @throws IOException if the outbox journal of the user cannot be opened
+     */
+    public ClientSession newSession(ClientUser clientUser) throws InvalidArgumentException, IOException {
+        ClientSession session = new ClientSession(this, clientUser);
+        // the next run warms up with this user
+        startupCache.setUser(clientUser.getAffiliation(), clientUser.getName());
+        saveStartupCache();
+        return session;
+    }
+
+    private void saveStartupCache() {
+        if (Boolean.valueOf(Strings.STARTUP_CACHE_ENABLED)) {
+            try {
+                startupCache.save(Paths.get(Strings.STARTUP_CACHE_FILENAME));
+            } catch (IOException ex) {
+                LOG.error("Could not save startup cache", ex);
+            }
+        }
+    }
+
+    /**
+     * Create transaction proposal request
      *
-     * @param channel Channel to invoke the chaincode on
      * @param chaincodeName Name of chaincode
      * @param function Chaincode function to invoke
      * @param args Proposal arguments
-     * @return Proposal responses
-     * @throws InvalidArgumentException if arguments to the proposal are invalid
-     * @throws ProposalException if query or transaction proposal fails
+     * @return Proposal request
      */
-    public static Collection<ProposalResponse> transactionProposal(Channel channel, String chaincodeName, String function, String[] args) throws InvalidArgumentException, ProposalException, ServiceDiscoveryException, IOException, ClassNotFoundException {
+    TransactionProposalRequest newProposalRequest(String chaincodeName, String function, String[] args) {
         TransactionProposalRequest request = client.newTransactionProposalRequest();
         ChaincodeID chaincode = ChaincodeID.newBuilder().setName(chaincodeName).build();
         request.setChaincodeID(chaincode);
         request.setFcn(function); // chaincode function to be called
         request.setArgs(args); // chaincode arguments to be passed
         request.setProposalWaitTime(Integer.valueOf(Strings.PROPOSAL_TIMEOUT));
-        Collection<ProposalResponse> response;
-        String endorser = CommunicationHandler.queryProposal(CommunicationHandler.getChannel(), Strings.INCENTIVE_CHAINCODE_NAME, Strings.INCENTIVE_CHAINCODE_FUNCTION_ENDORSER, new String[]{});
-        LOG.info("Selected organization '" + endorser + "' for endorsing the transaction");
-        if (endorser != null) {
-            // send proposal to selected endorser organization
-            EndorserSelector.setEndorsers(new String[]{endorser, client.getUserContext().getMspId().split("MSP")[0]});
-            response = channel.sendTransactionProposalToEndorsers(request, Channel.DiscoveryOptions.createDiscoveryOptions().setEndorsementSelector(EndorserSelector.ENDORSEMENT_SELECTION_SIGNIFICANCE).setForceDiscovery(true));
-        } else {
-            // send proposal to random endorser organization
-            response = channel.sendTransactionProposalToEndorsers(request, Channel.DiscoveryOptions.createDiscoveryOptions().setEndorsementSelector(ServiceDiscovery.EndorsementSelector.ENDORSEMENT_SELECTION_RANDOM).setForceDiscovery(true));
-        }
-        // check if any responses were received
-        if (response.isEmpty()) {
-            LOG.error("No responses received");
-            return null;
-        }
-        // check if RW sets are consistent
-        Collection<Set<ProposalResponse>> consistencySets = SDKUtils.getProposalConsistencySets(response);
-        if (consistencySets.size() != 1) {
-            LOG.error("Inconsistent RW sets. Transaction for chaincode '" + chaincodeName + "' not submitted.");
-            return null;
-        } else {
-            LOG.info("Transaction for chaincode '" + chaincodeName + "' submitted");
-            return response;
-        }
-    }
-
-    /**
-     * Query state database
-     *
-     * @param channel Channel to invoke
-     * @param chaincodeName Name of chaincode
-     * @param functionName Name of chaincode function
-     * @param args Query arguments
-     * @return Array of query results
-     * @throws InvalidArgumentException if arguments to the proposal are invalid
-     * @throws ProposalException if query proposal fails
-     */
-    public static String queryProposal(Channel channel, String chaincodeName, String functionName, String[] args) throws InvalidArgumentException, ProposalException {
-        QueryByChaincodeRequest qpr = client.newQueryProposalRequest();
-        ChaincodeID chaincode = ChaincodeID.newBuilder().setName(chaincodeName).build();
-        qpr.setChaincodeID(chaincode);
-        qpr.setFcn(functionName); // chaincode function to be called
-        qpr.setArgs(args); // chaincode arguments to be passed
-        qpr.setProposalWaitTime(Integer.valueOf(Strings.PROPOSAL_TIMEOUT));
-        Collection<ProposalResponse> response = channel.queryByChaincode(qpr); // issue query proposal
-        for (ProposalResponse pr : response) {
-            try {
-                return new String(pr.getChaincodeActionResponsePayload()); // return response payload
-            } catch (InvalidArgumentException e) {
-                LOG.info("Query returned no payload");
-                return null;
-            }
-        }
-        return null;
+        return request;
     }
 
     /**
-     * Get ClientUser object from file or create new
+     * Get ClientUser object from the credential store or create new. A user
+     * found in the legacy per-user file is moved to the credential store.
      *
+     * @param caClient CA client to enroll with
      * @param name Client name
      * @param registrar Registrar for user. Null if enrolling an admin.
      * @param pass Registrar password. Null if enrolling a user.
@@ -212,20 +564,28 @@ public class CommunicationHandler {
      * @throws EnrollmentException if ca client cannot enroll the registrar
      * @throws InvalidArgumentException if arguments to ca client is invalid
      * @throws RegistrationException if ca client cannot enroll the user
-     * @throws FileNotFoundException if object cannot be written to file
+     * @throws IOException if the credential store cannot be read or written
      * @throws Exception if failed creating RegistrationRequest object
      */
-    private static ClientUser getClientUser(String name, ClientUser registrar, String pass, String affiliation, String msp) throws EnrollmentException, InvalidArgumentException, RegistrationException, FileNotFoundException, Exception {
-        ClientUser clientUser;
-        // try to read user from file
-        try {
-            clientUser = (ClientUser) readObjectFromFile("users" + File.separator + affiliation + File.separator + name);
-            LOG.info("Read user '" + clientUser.getName() + "' with affiliation '" + clientUser.getAffiliation() + "' from file");
+    private ClientUser getClientUser(HFCAClient caClient, String name, ClientUser registrar, String pass, String affiliation, String msp) throws EnrollmentException, InvalidArgumentException, RegistrationException, IOException, Exception {
+        CredentialStore store = getCredentialStore();
+        ClientUser clientUser = store.get(affiliation, name);
+        if (clientUser != null) {
             return clientUser;
-        } catch (IOException | ClassNotFoundException ex) {
-            LOG.info("Could not find user context file. Enrolling user with CA", ex);
         }
-        // entroll new user with CA and save to file
+        // try to read user from legacy file
+        File legacy = new File("users" + File.separator + affiliation + File.separator + name);
+        if (legacy.isFile()) {
+            try {
+                clientUser = (ClientUser) readObjectFromFile(legacy.getPath());
+                store.put(clientUser);
+                LOG.info("Moved user '" + clientUser.getName() + "' with affiliation '" + clientUser.getAffiliation() + "' from file to credential store");
+                return clientUser;
+            } catch (IOException | ClassNotFoundException ex) {
+                LOG.info("Could not read user context file. Enrolling user with CA", ex);
+            }
+        }
+        // entroll new user with CA and save to credential store
         if (registrar == null) {
             // enroll admin
             Enrollment enrollment = caClient.enroll(name, pass);
@@ -236,29 +596,187 @@ public class CommunicationHandler {
             Enrollment userEnrollment = caClient.enroll(name, caClient.register(request, registrar));
             clientUser = new ClientUser(name, affiliation, userEnrollment, msp);
         }
-        // write object to file
-        File directory = new File("users" + File.separator + affiliation);
-        if (!directory.exists()) {
-            File subDirectory = new File("users");
-            if (!subDirectory.exists()) {
-                subDirectory.mkdir();
+        store.put(clientUser);
+        LOG.info("Enrolled user '" + clientUser.getName() + "' with affiliation '" + clientUser.getAffiliation() + "'");
+        return clientUser;
+    }
+
+    /**
+     * Get the credential store, opening it on first use
+     *
+     * @return Credential store
+     * @throws IOException if the store cannot be opened
+     */
+    CredentialStore getCredentialStore() throws IOException {
+        // not locked on the handler, enrollment must not wait for the channel to initialize
+        synchronized (credentialLock) {
+            if (credentialStore == null) {
+                credentialStore = new CredentialStore(Paths.get(Strings.CREDENTIAL_STORE_FILENAME), Integer.valueOf(Strings.CREDENTIAL_CACHE_SIZE));
             }
-            directory.mkdir();
+            return credentialStore;
         }
-        writeObjectToFile(clientUser, "users" + File.separator + affiliation + File.separator + name); // write to disk
-        String message = "Enrolled user '" + clientUser.getName() + "' with affiliation '" + clientUser.getAffiliation() + "'";
-        LOG.info(message);
-        LOG.info("Wrote user '" + name + "' to disk");
-        return clientUser;
     }
 
     /**
      * Get channel object
      *
-     * @return Channel object
+     * @return Channel object, null if not initialized
+     */
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Get Fabric client object
+     *
+     * @return Fabric client
+     */
+    HFClient getClient() {
+        return client;
+    }
+
+    /**
+     * Get cache of service discovery results
+     *
+     * @return Discovery cache
+     */
+    public DiscoveryCache getDiscoveryCache() {
+        return discoveryCache;
+    }
+
+    /**
+     * Get scheduler ordering writes to the same record across all sessions
+     *
+     * @return Write scheduler
+     */
+    public WriteScheduler getWriteScheduler() {
+        return writeScheduler;
+    }
+
+    /**
+     * Get commit tracking for transactions of all sessions
+     *
+     * @return Commit multiplexer
+     */
+    CommitMultiplexer getCommitMultiplexer() {
+        return commitMultiplexer;
+    }
+
+    /**
+     * Get proposal latency tracker for endorsing peers
+     *
+     * @return Peer latency tracker
+     */
+    public PeerLatencyTracker getPeerLatency() {
+        return peerLatency;
+    }
+
+    /**
+     * Get stage latency and transaction outcome metrics
+     *
+     * @return Client metrics
+     */
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get hedged query sender shared by all sessions
+     *
+     * @return Hedged query
+     */
+    public HedgedQuery getHedgedQuery() {
+        return hedgedQuery;
+    }
+
+    /**
+     * Get significance endorsement selector for a chaincode
+     *
+     * @param chaincodeName Name of chaincode
+     * @return Endorser selector shared by all sessions
+     */
+    EndorserSelector getSelector(String chaincodeName) {
+        return selectors.computeIfAbsent(chaincodeName, (name) -> new EndorserSelector(latencyAware ? peerLatency : LayoutIndex.RANDOM_PEER));
+    }
+
+    /**
+     * Get endorsement selector picking a random endorser organization
+     *
+     * @return Endorsement selector
+     */
+    ServiceDiscovery.EndorsementSelector getRandomSelector() {
+        return randomSelector;
+    }
+
+    /**
+     * Get executor sending transaction proposals for all sessions
+     *
+     * @return Proposal executor
+     */
+    ExecutorService getProposalExecutor() {
+        return proposalExecutor;
+    }
+
+    /**
+     * Get executor refreshing endorser caches for all sessions
+     *
+     * @return Cache refresh executor
      */
-    public static synchronized Channel getChannel() {
-        return CommunicationHandler.channel;
+    ScheduledExecutorService getCacheRefresher() {
+        return cacheRefresher;
+    }
+
+    /**
+     * Get adaptive window of transactions in endorsement or ordering for all
+     * sessions
+     *
+     * @return Write limiter
+     */
+    public ConcurrencyLimiter getWriteLimiter() {
+        return writeLimiter;
+    }
+
+    /**
+     * Get router picking the orderer for each transaction
+     *
+     * @return Orderer router
+     */
+    public OrdererRouter getOrdererRouter() {
+        return ordererRouter;
+    }
+
+    /**
+     * Get identical chaincode queries in flight for all sessions
+     *
+     * @return Query coalescing
+     */
+    public SingleFlight<List<String>, String> getQueries() {
+        return queries;
+    }
+
+    /**
+     * Get adaptive window of chaincode queries for all sessions
+     *
+     * @return Query limiter
+     */
+    public ConcurrencyLimiter getQueryLimiter() {
+        return queryLimiter;
+    }
+
+    /**
+     * Set the largest window of transactions in flight across all sessions.
+     * The window starts over at its initial size. Transactions already in
+     * flight are not affected.
+     *
+     * @param maxInFlight Maximum number of transactions in flight
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        writeLimiter = newLimiter("write", Math.min(maxInFlight, Integer.valueOf(Strings.SUBMIT_INITIAL_IN_FLIGHT)), maxInFlight);
+    }
+
+    private static ConcurrencyLimiter newLimiter(String name, int initialLimit, int maxLimit) {
+        return new ConcurrencyLimiter(name, initialLimit, Math.min(maxLimit, Integer.valueOf(Strings.LIMIT_MIN_IN_FLIGHT)), maxLimit, Double.valueOf(Strings.LIMIT_BACKOFF_RATIO),
+                Double.valueOf(Strings.LIMIT_LATENCY_TOLERANCE), Long.valueOf(Strings.LIMIT_QUEUE_TIMEOUT), Integer.valueOf(Strings.LIMIT_MAX_QUEUED));
     }
 
     /**
@@ -269,7 +787,7 @@ public class CommunicationHandler {
      * @throws FileNotFoundException if file path is invalid
      * @throws IOException if file stream cannot be opened
      */
-    private static void writeObjectToFile(Object object, String path) throws FileNotFoundException, IOException {
+    static void writeObjectToFile(Object object, String path) throws FileNotFoundException, IOException {
         FileOutputStream fileOutputStream = new FileOutputStream(path);
         try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(fileOutputStream)) {
             objectOutputStream.writeObject(object);
@@ -285,7 +803,7 @@ public class CommunicationHandler {
      * @throws FileNotFoundException if file path is invalid
      * @throws IOException if file stream cannot be opened
      */
-    private static Object readObjectFromFile(String path) throws ClassNotFoundException, FileNotFoundException, IOException {
+    static Object readObjectFromFile(String path) throws ClassNotFoundException, FileNotFoundException, IOException {
         FileInputStream fileInputStream = new FileInputStream(path);
         try (ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream)) {
             return objectInputStream.readObject();
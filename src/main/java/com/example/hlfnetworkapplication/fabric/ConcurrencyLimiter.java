@@ -0,0 +1,186 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.log4j.Logger;
+
+/**
+ * Limits the number of requests in flight with a window sized by additive
+ * increase and multiplicative decrease. The window grows by one request per
+ * window of requests completing in time while the window is in use, and
+ * shrinks by the backoff ratio when a request times out or fails, or takes
+ * longer than the latency tolerance times the latency of the network without
+ * load. The latency without load is the lowest latency seen in the current
+ * and previous sample windows, so it follows the network when it changes.
+ *
+ * Requests over the window wait in a queue for a free slot, and are rejected
+ * with a RejectedExecutionException if the queue is full or the wait exceeds
+ * the queue timeout.
+ *
+ * @author kehm
+ */
+public class ConcurrencyLimiter {
+
+    private static final Logger LOG = Logger.getLogger(ConcurrencyLimiter.class);
+
+    private static final int SAMPLE_WINDOW = 256; // samples before the latency without load is renewed
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio; // factor applied to the limit on overload
+    private final double latencyTolerance; // latency over the latency without load counted as overload
+    private final long queueTimeout; // maximum wait for a slot in nanoseconds
+    private final int maxQueued; // maximum number of requests waiting for a slot
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile double limit; // guarded by lock, volatile for readers
+    private volatile int inFlight; // guarded by lock, volatile for readers
+    private int queued; // guarded by lock
+    private long windowMinLatency = Long.MAX_VALUE; // guarded by lock
+    private long previousMinLatency = Long.MAX_VALUE; // guarded by lock
+    private int samples; // guarded by lock
+    private long lastDecrease; // System.nanoTime() of the last decrease, guarded by lock
+
+    /**
+     * Constructor for ConcurrencyLimiter object
+     *
+     * @param name Name used in log messages and errors
+     * @param initialLimit Initial window
+     * @param minLimit Smallest window
+     * @param maxLimit Largest window
+     * @param backoffRatio Factor applied to the window on overload, between 0
+     * and 1
+     * @param latencyTolerance Latency as a multiple of the latency without
+     * load counted as overload
+     * @param queueTimeout Maximum wait for a slot in milliseconds
+     * @param maxQueued Maximum number of requests waiting for a slot
+     */
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double backoffRatio, double latencyTolerance, long queueTimeout, int maxQueued) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.queueTimeout = TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+        this.maxQueued = maxQueued;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * Wait for a slot in the window
+     *
+     * @return Start time of the request, to pass to
+     * {@link #release(long, boolean)}
+     * @throws RejectedExecutionException if the queue is full, no slot is free
+     * within the queue timeout or the thread is interrupted
+     */
+    public long acquire() {
+        lock.lock();
+        try {
+            if (inFlight >= (int) limit) {
+                if (queued >= maxQueued) {
+                    throw reject("queue of " + maxQueued + " requests is full");
+                }
+                queued++;
+                try {
+                    long remaining = queueTimeout;
+                    while (inFlight >= (int) limit) {
+                        if (remaining <= 0) {
+                            throw reject("no slot within " + TimeUnit.NANOSECONDS.toMillis(queueTimeout) + " ms");
+                        }
+                        remaining = available.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw reject("interrupted while waiting for a slot");
+                } finally {
+                    queued--;
+                }
+            }
+            inFlight++;
+            return System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a slot and adjust the window with the outcome of the request
+     *
+     * @param start Start time returned by {@link #acquire()}
+     * @param dropped True if the request timed out or failed because the
+     * network is overloaded
+     */
+    public void release(long start, boolean dropped) {
+        long now = System.nanoTime();
+        long latency = now - start;
+        lock.lock();
+        try {
+            int used = inFlight--;
+            windowMinLatency = Math.min(windowMinLatency, latency);
+            if (++samples >= SAMPLE_WINDOW) {
+                previousMinLatency = windowMinLatency;
+                windowMinLatency = Long.MAX_VALUE;
+                samples = 0;
+            }
+            long noLoadLatency = Math.min(windowMinLatency, previousMinLatency);
+            boolean overloaded = dropped || latency > latencyTolerance * noLoadLatency;
+            if (overloaded) {
+                // one decrease for each round trip, requests started before the last decrease saw the old window
+                if (start - lastDecrease > 0) {
+                    double previous = limit;
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecrease = now;
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Decreased " + name + " limit from " + (int) previous + " to " + (int) limit + (dropped ? " after dropped request" : " after " + TimeUnit.NANOSECONDS.toMillis(latency) + " ms request"));
+                    }
+                }
+            } else if (used * 2 >= (int) limit) {
+                // only grow a window that is in use
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get current window
+     *
+     * @return Maximum requests in flight
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Get number of requests in flight
+     *
+     * @return Requests in flight
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Get number of rejected requests
+     *
+     * @return Rejected requests
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private RejectedExecutionException reject(String reason) {
+        rejected.incrementAndGet();
+        return new RejectedExecutionException("Too many " + name + " requests in flight (limit " + (int) limit + "): " + reason);
+    }
+}
@@ -0,0 +1,396 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import org.apache.log4j.Logger;
+
+/**
+ * Enrolled users stored in a single file. The file starts with a magic number
+ * and a format version, followed by one record for each stored user. Each
+ * record is its length, a CRC32 checksum and the body, which holds the
+ * affiliation and name of the user first, then the MSP ID, the PEM encoded
+ * certificate, the key algorithm and a reference to the key file.
+ *
+ * Private keys are not stored in the store file. Each key is written PKCS#8
+ * encoded to its own file in a key directory next to the store, readable and
+ * writable by the owner only on file systems with POSIX permissions. A key
+ * file is written before the record referencing it, under a new name each
+ * time, so a record never references a key that does not belong to it. The
+ * key file of a replaced record is deleted. Stores of version 1, which held
+ * the keys inline, are rewritten when opened.
+ *
+ * When the store is opened, the file is memory mapped and only the
+ * affiliation and name of each record are read, to build an index from user
+ * to record offset. A user is decoded from its record when it is first looked
+ * up, and kept in a cache of recently used users. A user stored again, for
+ * example after enrolling again, is appended and replaces the earlier record
+ * in the index.
+ *
+ * @author kehm
+ */
+public class CredentialStore {
+
+    private static final Logger LOG = Logger.getLogger(CredentialStore.class);
+
+    private static final int MAGIC = 0x484c4643; // "HLFC"
+    private static final int VERSION = 2;
+    private static final int INLINE_KEY_VERSION = 1; // keys stored in the records
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+    private static final int FILE_HEADER = 8; // magic and version
+    private static final int HEADER = 8; // length and checksum of a record
+
+    private final Path path;
+    private final Path keys; // directory of the key files
+    private final FileChannel file; // guarded by this
+    private final Map<String, Long> index = new HashMap<>(); // record offset by affiliation and name, guarded by this
+    private final Map<String, ClientUser> cache; // recently used users, guarded by this
+    private long end; // end of the last record, guarded by this
+
+    /**
+     * Constructor for CredentialStore object. Creates the file if it does not
+     * exist and indexes its records.
+     *
+     * @param path Path of the store file
+     * @param cacheSize Maximum number of decoded users kept in memory
+     * @throws IOException if the file cannot be opened or is not a credential
+     * store of a supported version
+     */
+    public CredentialStore(Path path, int cacheSize) throws IOException {
+        this(path, path.toAbsolutePath().resolveSibling(path.getFileName() + ".keys"), cacheSize);
+    }
+
+    private CredentialStore(Path path, Path keys, int cacheSize) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.keys = keys;
+        this.cache = new LinkedHashMap<String, ClientUser>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ClientUser> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        Files.createDirectories(this.path.getParent());
+        if (!Files.isDirectory(keys)) {
+            Files.createDirectories(keys, permissions(keys.getParent(), OWNER_ONLY_DIRECTORY));
+        }
+        FileChannel channel = open(this.path);
+        if (readVersion(channel) == INLINE_KEY_VERSION) {
+            channel = upgrade(channel, cacheSize);
+        }
+        file = channel;
+        buildIndex();
+    }
+
+    /**
+     * Look up a user
+     *
+     * @param affiliation Affiliation of the user
+     * @param name Name of the user
+     * @return User, or null if not stored
+     * @throws IOException if the record cannot be read or decoded
+     */
+    public synchronized ClientUser get(String affiliation, String name) throws IOException {
+        String key = affiliation + "/" + name;
+        ClientUser clientUser = cache.get(key);
+        if (clientUser != null) {
+            return clientUser;
+        }
+        Long offset = index.get(key);
+        if (offset == null) {
+            return null;
+        }
+        clientUser = decode(readRecord(offset));
+        cache.put(key, clientUser);
+        return clientUser;
+    }
+
+    /**
+     * Store a user, replacing the user with the same affiliation and name
+     *
+     * @param clientUser Enrolled user
+     * @throws IOException if the record cannot be written
+     */
+    public synchronized void put(ClientUser clientUser) throws IOException {
+        if (clientUser.getEnrollment() == null || clientUser.getEnrollment().getKey().getEncoded() == null) {
+            throw new IOException("User '" + clientUser.getName() + "' has no exportable enrollment key");
+        }
+        String key = clientUser.getAffiliation() + "/" + clientUser.getName();
+        Long previous = index.get(key);
+        byte[] body = encode(clientUser, writeKey(clientUser.getEnrollment().getKey()));
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(HEADER + body.length).putInt(body.length).putInt((int) crc.getValue()).put(body);
+        record.flip();
+        long offset = end;
+        while (record.hasRemaining()) {
+            file.write(record, offset + record.position());
+        }
+        file.force(false);
+        end = offset + HEADER + body.length;
+        index.put(key, offset);
+        cache.put(key, clientUser);
+        if (previous != null) {
+            deleteKey(previous);
+        }
+    }
+
+    /**
+     * Get number of stored users
+     *
+     * @return Stored users
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Close the store file
+     */
+    public synchronized void close() {
+        try {
+            file.close();
+        } catch (IOException ex) {
+            LOG.error("Could not close credential store '" + path + "'", ex);
+        }
+    }
+
+    /**
+     * Index the records of the file by affiliation and name. A record torn by
+     * a crash while it was written ends the index, and is overwritten by the
+     * next record.
+     */
+    private synchronized void buildIndex() throws IOException {
+        long size = file.size();
+        MappedByteBuffer mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        long position = FILE_HEADER;
+        while (position + HEADER <= size) {
+            int length = mapped.getInt((int) position);
+            if (length <= 0 || position + HEADER + length > size) {
+                break;
+            }
+            byte[] body = new byte[length];
+            mapped.position((int) position + HEADER);
+            mapped.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != mapped.getInt((int) position + 4)) {
+                LOG.error("Torn record at offset " + position + " in credential store '" + path + "'");
+                break;
+            }
+            // the key is at the start of the body, the rest is decoded on lookup
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            index.put(in.readUTF() + "/" + in.readUTF(), position);
+            position += HEADER + length;
+        }
+        end = position;
+        LOG.info("Indexed " + index.size() + " users in credential store '" + path + "'");
+    }
+
+    /**
+     * Open a store file, writing the file header if the file is new
+     */
+    private static FileChannel open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        return channel;
+    }
+
+    private int readVersion(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+        }
+        header.flip();
+        if (header.remaining() < FILE_HEADER || header.getInt(0) != MAGIC) {
+            channel.close();
+            throw new IOException("'" + path + "' is not a credential store");
+        }
+        int version = header.getInt(4);
+        if (version != VERSION && version != INLINE_KEY_VERSION) {
+            channel.close();
+            throw new IOException("Unsupported credential store version " + version + " in '" + path + "'");
+        }
+        return version;
+    }
+
+    /**
+     * Rewrite a store holding the keys inline, moving the keys to key files.
+     * The new store replaces the old file at once, so a crash leaves either
+     * store in place.
+     */
+    private FileChannel upgrade(FileChannel channel, int cacheSize) throws IOException {
+        List<ClientUser> users = new ArrayList<>();
+        long size = channel.size();
+        long position = FILE_HEADER;
+        while (position + HEADER <= size) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            if (length <= 0 || position + HEADER + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            while (body.hasRemaining() && channel.read(body, position + HEADER + body.position()) >= 0) {
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+            if ((int) crc.getValue() != header.getInt()) {
+                break;
+            }
+            users.add(decodeInlineKey(body.array()));
+            position += HEADER + length;
+        }
+        channel.close();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        CredentialStore upgraded = new CredentialStore(tmp, keys, cacheSize);
+        try {
+            for (ClientUser clientUser : users) {
+                upgraded.put(clientUser);
+            }
+        } finally {
+            upgraded.close();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOG.info("Moved keys of " + users.size() + " users from credential store '" + path + "' to key files");
+        return open(path);
+    }
+
+    /**
+     * Write a private key to a new key file readable by the owner only
+     *
+     * @return Reference to the key file
+     */
+    private String writeKey(PrivateKey key) throws IOException {
+        String reference = UUID.randomUUID().toString() + ".pk8";
+        Path keyFile = keys.resolve(reference);
+        Path tmp = keys.resolve(reference + ".tmp");
+        Files.write(Files.createFile(tmp, permissions(keys, OWNER_ONLY)), key.getEncoded());
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, keyFile, StandardCopyOption.ATOMIC_MOVE);
+        return reference;
+    }
+
+    /**
+     * Delete the key file of a replaced record
+     */
+    private void deleteKey(long offset) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(readRecord(offset)));
+            for (int i = 0; i < 3; i++) {
+                in.readUTF(); // affiliation, name and MSP ID
+            }
+            in.skipBytes(in.readInt()); // certificate
+            in.readUTF(); // algorithm
+            Files.deleteIfExists(keys.resolve(in.readUTF()));
+        } catch (IOException ex) {
+            LOG.error("Could not delete replaced key file in '" + keys + "'", ex);
+        }
+    }
+
+    /**
+     * Get owner only permissions as file attributes, or none if the file
+     * system does not support POSIX permissions
+     */
+    private static FileAttribute<?>[] permissions(Path directory, Set<PosixFilePermission> permissions) {
+        if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(permissions)};
+        }
+        return new FileAttribute<?>[0];
+    }
+
+    private byte[] readRecord(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (header.hasRemaining() && file.read(header, offset + header.position()) >= 0) {
+        }
+        header.flip();
+        ByteBuffer body = ByteBuffer.allocate(header.getInt());
+        while (body.hasRemaining() && file.read(body, offset + HEADER + body.position()) >= 0) {
+        }
+        return body.array();
+    }
+
+    private static byte[] encode(ClientUser clientUser, String keyReference) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeUTF(clientUser.getAffiliation());
+        body.writeUTF(clientUser.getName());
+        body.writeUTF(clientUser.getMspId());
+        byte[] cert = clientUser.getEnrollment().getCert().getBytes(StandardCharsets.UTF_8);
+        body.writeInt(cert.length);
+        body.write(cert);
+        body.writeUTF(clientUser.getEnrollment().getKey().getAlgorithm());
+        body.writeUTF(keyReference);
+        return bytes.toByteArray();
+    }
+
+    private ClientUser decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        String affiliation = in.readUTF();
+        String name = in.readUTF();
+        String mspId = in.readUTF();
+        byte[] cert = new byte[in.readInt()];
+        in.readFully(cert);
+        String algorithm = in.readUTF();
+        byte[] encoded = Files.readAllBytes(keys.resolve(in.readUTF()));
+        return newUser(affiliation, name, mspId, cert, algorithm, encoded);
+    }
+
+    private static ClientUser decodeInlineKey(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        String affiliation = in.readUTF();
+        String name = in.readUTF();
+        String mspId = in.readUTF();
+        byte[] cert = new byte[in.readInt()];
+        in.readFully(cert);
+        String algorithm = in.readUTF();
+        byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+        return newUser(affiliation, name, mspId, cert, algorithm, encoded);
+    }
+
+    private static ClientUser newUser(String affiliation, String name, String mspId, byte[] cert, String algorithm, byte[] encoded) throws IOException {
+        PrivateKey key;
+        try {
+            // keys generated by the Fabric crypto suite report ECDSA, which the default provider names EC
+            key = KeyFactory.getInstance(algorithm.equals("ECDSA") ? "EC" : algorithm).generatePrivate(new PKCS8EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Could not decode key of user '" + name + "'", ex);
+        }
+        return new ClientUser(name, affiliation, new StoredEnrollment(key, new String(cert, StandardCharsets.UTF_8)), mspId);
+    }
+}
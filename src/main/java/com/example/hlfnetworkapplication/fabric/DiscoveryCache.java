@@ -0,0 +1,153 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.ServiceDiscovery;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDChaindcode;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+
+/**
+ * Cache of service discovery results keyed by chaincode name. Proposals use
+ * the layouts already discovered by the SDK, and only force a new discovery
+ * the first time a chaincode is used, once its layouts are older than the
+ * refresh interval, after a configuration block is committed on the channel,
+ * or after an endorsement failed because the network topology changed.
+ *
+ * The SDK has no public call that discovers the layouts of a chaincode
+ * without sending a proposal, so layouts are not refreshed in the
+ * background. A stale entry is refreshed by the discovery of the next
+ * proposal for the chaincode, which costs that proposal one discovery round
+ * trip in each refresh interval, and no proposal is sent or signed only to
+ * discover.
+ *
+ * @author kehm
+ */
+public class DiscoveryCache {
+
+    private static final Logger LOG = Logger.getLogger(DiscoveryCache.class);
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long refreshInterval; // milliseconds before an entry is discovered again
+    private Channel channel;
+    private String blockListenerHandle;
+
+    /**
+     * Constructor for DiscoveryCache object
+     *
+     * @param channel Channel to discover on
+     * @param refreshInterval Milliseconds before an entry is discovered again
+     */
+    public DiscoveryCache(Channel channel, long refreshInterval) {
+        this.channel = channel;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Get discovery options for a proposal. Discovery is only forced if the
+     * chaincode has not been discovered yet, or its entry is stale or was
+     * invalidated.
+     *
+     * @param chaincodeName Name of chaincode
+     * @param selector Endorsement selector to use
+     * @return Discovery options
+     * @throws InvalidArgumentException if the selector is invalid
+     */
+    public Channel.DiscoveryOptions getDiscoveryOptions(String chaincodeName, ServiceDiscovery.EndorsementSelector selector) throws InvalidArgumentException {
+        Entry entry = entries.computeIfAbsent(chaincodeName, (name) -> new Entry());
+        boolean force = entry.snapshot == null || entry.forceNext;
+        entry.forceNext = false;
+        if (!force) {
+            long now = System.currentTimeMillis();
+            synchronized (entry) {
+                // only the first proposal after the interval rediscovers, the others use the layouts until then
+                if (now - entry.refreshed >= refreshInterval) {
+                    entry.refreshed = now;
+                    force = true;
+                }
+            }
+        }
+        final boolean forced = force;
+        return Channel.DiscoveryOptions.createDiscoveryOptions().setEndorsementSelector((sdc) -> {
+            entry.update(sdc, forced);
+            return selector.endorserSelector(sdc);
+        }).setForceDiscovery(forced);
+    }
+
+    /**
+     * Force a new discovery on the next proposal for the chaincode. Used when
+     * endorsement fails because of a topology change.
+     *
+     * @param chaincodeName Name of chaincode
+     */
+    public void invalidate(String chaincodeName) {
+        Entry entry = entries.get(chaincodeName);
+        if (entry != null) {
+            entry.forceNext = true;
+        }
+    }
+
+    /**
+     * Get the last discovered layouts for the chaincode
+     *
+     * @param chaincodeName Name of chaincode
+     * @return Discovered layouts or null if not discovered
+     */
+    public SDChaindcode getSnapshot(String chaincodeName) {
+        Entry entry = entries.get(chaincodeName);
+        return entry == null ? null : entry.snapshot;
+    }
+
+    /**
+     * Force a new discovery for all entries each time a configuration block
+     * is received on the channel, since channel configuration and membership
+     * may have changed
+     *
+     * @throws InvalidArgumentException if the block listener cannot be
+     * registered
+     */
+    public void registerBlockListener() throws InvalidArgumentException {
+        blockListenerHandle = channel.registerBlockListener((blockEvent) -> {
+            for (BlockInfo.EnvelopeInfo envelopeInfo : blockEvent.getEnvelopeInfos()) {
+                if (envelopeInfo.getType() == BlockInfo.EnvelopeType.ENVELOPE) {
+                    LOG.info("Configuration block " + blockEvent.getBlockNumber() + " received. Rediscovering layouts on next proposals");
+                    entries.values().forEach((entry) -> entry.forceNext = true);
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Unregister the block listener
+     */
+    public void close() {
+        if (blockListenerHandle != null) {
+            try {
+                channel.unregisterBlockListener(blockListenerHandle);
+            } catch (InvalidArgumentException ex) {
+                LOG.error("Could not unregister discovery cache block listener", ex);
+            }
+        }
+    }
+
+    /**
+     * Discovered layouts for a chaincode
+     */
+    private static class Entry {
+
+        private volatile SDChaindcode snapshot; // last discovered layouts
+        private volatile long refreshed; // time of last forced discovery
+        private volatile boolean forceNext; // force discovery on next proposal
+
+        private void update(SDChaindcode sdc, boolean discovered) {
+            snapshot = sdc;
+            if (discovered) {
+                refreshed = System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+
+/**
+ * Cache for the endorser organization selected by the incentive mechanism
+ * chaincode. Entries expire after a time to live and are invalidated by every
+ * new block, since each block may change the significance of the members. In
+ * background refresh mode the cached value is replaced asynchronously and the
+ * caller never waits on the incentive chaincode after the first load.
+ *
+ * A load that started before an invalidation may return the old endorser
+ * after it. Every invalidation advances a generation counter, and entries are
+ * tagged with the generation read before they were loaded. An entry of an
+ * earlier generation is not used, and never replaces an entry of a later
+ * generation.
+ *
+ * @author kehm
+ */
+public class EndorserCache {
+
+    private static final Logger LOG = Logger.getLogger(EndorserCache.class);
+
+    private final Loader loader; // loads the endorser from the incentive chaincode
+    private final long ttl; // time to live in milliseconds
+    private final boolean backgroundRefresh; // refresh asynchronously instead of on the calling thread
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+    private final AtomicLong generation = new AtomicLong(); // number of invalidations
+    private final AtomicReference<Entry> entry = new AtomicReference<>(); // cached endorser, null if not loaded
+    private final ScheduledExecutorService refresher; // refreshes entries in background refresh mode
+    private ScheduledFuture<?> scheduledRefresh;
+    private Channel channel;
+    private String blockListenerHandle;
+
+    /**
+     * Loads the endorser organization
+     */
+    public interface Loader {
+
+        /**
+         * Load the endorser organization
+         *
+         * @return Endorser organization or null if none was selected
+         * @throws InvalidArgumentException if arguments to the query are invalid
+         * @throws ProposalException if query proposal fails
+         */
+        String load() throws InvalidArgumentException, ProposalException;
+    }
+
+    /**
+     * Constructor for EndorserCache object
+     *
+     * @param loader Loads the endorser organization
+     * @param ttl Time to live in milliseconds
+     * @param refresher Executor to refresh entries in the background, or null
+     * to load entries on the calling thread
+     */
+    public EndorserCache(Loader loader, long ttl, ScheduledExecutorService refresher) {
+        this.loader = loader;
+        this.ttl = ttl;
+        this.refresher = refresher;
+        this.backgroundRefresh = refresher != null;
+        if (backgroundRefresh) {
+            scheduledRefresh = refresher.scheduleWithFixedDelay(this::requestRefresh, ttl, ttl, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Get endorser organization, loading it if no valid entry is cached
+     *
+     * @return Endorser organization or null if none was selected
+     * @throws InvalidArgumentException if arguments to the query are invalid
+     * @throws ProposalException if query proposal fails
+     */
+    public String get() throws InvalidArgumentException, ProposalException {
+        Entry current = entry.get();
+        if (isValid(current)) {
+            hits.incrementAndGet();
+            return current.endorser;
+        }
+        misses.incrementAndGet();
+        synchronized (this) {
+            current = entry.get();
+            if (!isValid(current)) {
+                long loading = generation.get();
+                current = new Entry(loader.load(), loading);
+                store(current);
+            }
+            return current.endorser;
+        }
+    }
+
+    /**
+     * Invalidate the cached entry. In background refresh mode the entry is
+     * kept until it has been reloaded.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        if (backgroundRefresh) {
+            requestRefresh();
+        }
+    }
+
+    /**
+     * Invalidate the cached entry each time a block is received on the channel
+     *
+     * @param channel Channel to listen on
+     * @throws InvalidArgumentException if the block listener cannot be
+     * registered
+     */
+    public void registerBlockListener(Channel channel) throws InvalidArgumentException {
+        this.channel = channel;
+        blockListenerHandle = channel.registerBlockListener((blockEvent) -> invalidate());
+    }
+
+    /**
+     * Stop background refresh and unregister the block listener
+     */
+    public void close() {
+        if (blockListenerHandle != null) {
+            try {
+                channel.unregisterBlockListener(blockListenerHandle);
+            } catch (InvalidArgumentException ex) {
+                LOG.error("Could not unregister endorser cache block listener", ex);
+            }
+        }
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+    }
+
+    /**
+     * Get number of lookups answered from the cache
+     *
+     * @return Cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get number of lookups that had to query the incentive chaincode
+     *
+     * @return Cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Schedule a reload of the entry unless one is already pending
+     */
+    private void requestRefresh() {
+        if (refreshPending.compareAndSet(false, true)) {
+            refresher.execute(() -> {
+                refreshPending.set(false);
+                long loading = generation.get();
+                try {
+                    store(new Entry(loader.load(), loading));
+                } catch (InvalidArgumentException | ProposalException ex) {
+                    LOG.error("Could not refresh selected endorser", ex);
+                }
+            });
+        }
+    }
+
+    /**
+     * Check whether an entry can be used. In background refresh mode an
+     * entry is used until it is replaced.
+     */
+    private boolean isValid(Entry current) {
+        if (current == null) {
+            return false;
+        }
+        return backgroundRefresh || (current.generation == generation.get() && System.currentTimeMillis() - current.loaded < ttl);
+    }
+
+    /**
+     * Replace the cached entry unless it was loaded in a later generation
+     */
+    private void store(Entry loaded) {
+        while (true) {
+            Entry current = entry.get();
+            if (current != null && current.generation > loaded.generation) {
+                return;
+            }
+            if (entry.compareAndSet(current, loaded)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cached endorser organization with load time
+     */
+    private static class Entry {
+
+        private final String endorser;
+        private final long loaded;
+        private final long generation; // generation when the load started
+
+        private Entry(String endorser, long generation) {
+            this.endorser = endorser;
+            this.loaded = System.currentTimeMillis();
+            this.generation = generation;
+        }
+    }
+}
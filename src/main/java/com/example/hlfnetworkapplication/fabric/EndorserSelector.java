@@ -6,62 +6,127 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import org.apache.log4j.Logger;
 import org.hyperledger.fabric.sdk.ServiceDiscovery;
 import org.hyperledger.fabric.sdk.ServiceDiscovery.SDEndorser;
 import org.hyperledger.fabric.sdk.ServiceDiscovery.SDEndorserState;
 import org.hyperledger.fabric.sdk.ServiceDiscovery.SDLayout;
 
 /**
- * Class for endorsement selector based on the significance concept
+ * Class for endorsement selector based on the significance concept. An
+ * instance selects endorsements for one chaincode using an index of the
+ * discovered layouts, which is rebuilt when the fingerprint of the layouts
+ * passed to the selector differs from the indexed snapshot. The instance
+ * is shared by all sessions; the endorser and invoker organizations are given
+ * for each selection.
  *
  * @author kehm
  */
-public class EndorserSelector implements ServiceDiscovery.EndorsementSelector {
+public class EndorserSelector {
 
+    private static final Logger LOG = Logger.getLogger(EndorserSelector.class);
     private static final Random RANDOM = new Random();
-    private static String[] endorsers; // endorser organization
+
+    private final LayoutIndex.PeerPicker picker; // picks a peer from each selected organization
+    private volatile LayoutIndex index; // index of the last discovered layouts
 
     /**
-     * Select endorsement based on the amount of significance associated with
-     * the member
+     * Constructor for EndorserSelector object picking random peers
+     */
+    public EndorserSelector() {
+        this(LayoutIndex.RANDOM_PEER);
+    }
+
+    /**
+     * Constructor for EndorserSelector object
+     *
+     * @param picker Picks a peer from each selected organization
+     */
+    public EndorserSelector(LayoutIndex.PeerPicker picker) {
+        this.picker = picker;
+    }
+
+    /**
+     * Create endorsement selector based on the amount of significance
+     * associated with the member, without the index of the discovered layouts
+     *
+     * @param endorsers Endorser and invoker organizations
+     * @return Endorsement selector
      */
-    public static final ServiceDiscovery.EndorsementSelector ENDORSEMENT_SELECTION_SIGNIFICANCE = (sdc) -> {
-        System.out.println("Endorser is: " + endorsers[0] + " Invoker is: " + endorsers[1]);
-        Map<String, SDEndorser> selectedEndorsers = new HashMap<>();
-        SDLayout selectedLayout = null;
-        List<SDLayout> layouts = new ArrayList<>(sdc.getLayouts());
-        while (!layouts.isEmpty()) {
-            SDLayout lay = layouts.get(RANDOM.nextInt(layouts.size()));
-            // check if layout contains all selected endorsers and select one random peer from each endorser
-            lay.getSDLGroups().stream().map((grp) -> new ArrayList<>(grp.getEndorsers()).get(RANDOM.nextInt(grp.getEndorsers().size()))).filter((end) -> (end.getMspid().split("MSP")[0].equalsIgnoreCase(endorsers[0]) || end.getMspid().split("MSP")[0].equalsIgnoreCase(endorsers[1]))).forEachOrdered((end) -> {
-                selectedEndorsers.putIfAbsent(end.getEndpoint(), end);
-            });
-            // if layout contains all required endorsers, select the layout
-            if (selectedEndorsers.size() == endorsers.length) {
-                selectedLayout = lay;
-                break;
-            } else {
-                layouts.remove(lay);
-                selectedEndorsers.clear();
+    public static ServiceDiscovery.EndorsementSelector newSignificanceSelector(String[] endorsers) {
+        return (sdc) -> {
+            LOG.debug("Endorser is: " + endorsers[0] + " Invoker is: " + endorsers[1]);
+            Map<String, SDEndorser> selectedEndorsers = new HashMap<>();
+            SDLayout selectedLayout = null;
+            List<SDLayout> layouts = new ArrayList<>(sdc.getLayouts());
+            while (!layouts.isEmpty()) {
+                SDLayout lay = layouts.get(RANDOM.nextInt(layouts.size()));
+                // check if layout contains all selected endorsers and select one random peer from each endorser
+                lay.getSDLGroups().stream().map((grp) -> new ArrayList<>(grp.getEndorsers()).get(RANDOM.nextInt(grp.getEndorsers().size()))).filter((end) -> (end.getMspid().split("MSP")[0].equalsIgnoreCase(endorsers[0]) || end.getMspid().split("MSP")[0].equalsIgnoreCase(endorsers[1]))).forEachOrdered((end) -> {
+                    selectedEndorsers.putIfAbsent(end.getEndpoint(), end);
+                });
+                // if layout contains all required endorsers, select the layout
+                if (selectedEndorsers.size() == endorsers.length) {
+                    selectedLayout = lay;
+                    break;
+                } else {
+                    layouts.remove(lay);
+                    selectedEndorsers.clear();
+                }
             }
-        }
-        final SDEndorserState sdEndorserState = new SDEndorserState();
-        sdEndorserState.setPickedEndorsers(selectedEndorsers.values());
-        sdEndorserState.setPickedLayout(selectedLayout);
-        return sdEndorserState;
-    };
+            final SDEndorserState sdEndorserState = new SDEndorserState();
+            sdEndorserState.setPickedEndorsers(selectedEndorsers.values());
+            sdEndorserState.setPickedLayout(selectedLayout);
+            return sdEndorserState;
+        };
+    }
 
     /**
-     * Sets endorsing organizations
+     * Create endorsement selector for a pair of organizations
      *
-     * @param endorsers Endorsing organizations
+     * @param endorser Endorser organization
+     * @param invoker Invoker organization
+     * @return Endorsement selector
      */
-    public static void setEndorsers(String[] endorsers) {
-        EndorserSelector.endorsers = endorsers;
+    public ServiceDiscovery.EndorsementSelector forOrganizations(String endorser, String invoker) {
+        String endorserOrg = LayoutIndex.getOrganization(endorser);
+        String invokerOrg = LayoutIndex.getOrganization(invoker);
+        return (sdc) -> select(sdc, endorserOrg, invokerOrg);
     }
 
-    @Override
-    public SDEndorserState endorserSelector(ServiceDiscovery.SDChaindcode sdc) {
-        throw new UnsupportedOperationException("Method not implemented.");
+    /**
+     * Select endorsement based on the amount of significance associated with
+     * the member, using the index of the discovered layouts. Falls back to the
+     * selector from {@link #newSignificanceSelector(String[])} if the layouts
+     * cannot be indexed.
+     *
+     * @param sdc Discovered layouts
+     * @param endorser Endorser organization in lower case
+     * @param invoker Invoker organization in lower case
+     * @return Selected layout and endorsers
+     */
+    public SDEndorserState select(ServiceDiscovery.SDChaindcode sdc, String endorser, String invoker) {
+        LayoutIndex current = index;
+        if (current == null || current.getFingerprint() != LayoutIndex.fingerprint(sdc)) {
+            // first selection, or discovery returned new layouts
+            current = new LayoutIndex(sdc);
+            index = current;
+        }
+        SDEndorserState sdEndorserState = null;
+        if (current.isIndexed()) {
+            sdEndorserState = current.select(sdc, endorser, invoker, picker);
+            if (sdEndorserState == null) {
+                // layouts no longer match the index despite the fingerprint
+                current = new LayoutIndex(sdc);
+                index = current;
+                if (current.isIndexed()) {
+                    sdEndorserState = current.select(sdc, endorser, invoker, picker);
+                }
+            }
+        }
+        if (sdEndorserState == null) {
+            return newSignificanceSelector(new String[]{endorser, invoker}).endorserSelector(sdc);
+        }
+        return sdEndorserState;
     }
 }
@@ -0,0 +1,75 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+/**
+ * Result of enrolling one user in a bulk enrollment
+ *
+ * @author kehm
+ */
+public class EnrollmentResult {
+
+    private final String userName;
+    private final ClientUser clientUser; // enrolled user, null if enrollment failed
+    private final Exception error; // cause of failure, null if enrolled
+    private final long duration; // time to register and enroll in milliseconds
+
+    /**
+     * Constructor for EnrollmentResult object
+     *
+     * @param userName User name
+     * @param clientUser Enrolled user, null if enrollment failed
+     * @param error Cause of failure, null if enrolled
+     * @param duration Time to register and enroll in milliseconds
+     */
+    public EnrollmentResult(String userName, ClientUser clientUser, Exception error, long duration) {
+        this.userName = userName;
+        this.clientUser = clientUser;
+        this.error = error;
+        this.duration = duration;
+    }
+
+    /**
+     * Get user name
+     *
+     * @return User name
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Get enrolled user
+     *
+     * @return Enrolled user, null if enrollment failed
+     */
+    public ClientUser getClientUser() {
+        return clientUser;
+    }
+
+    /**
+     * Get cause of failure
+     *
+     * @return Exception, null if enrolled
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Get time to register and enroll the user
+     *
+     * @return Duration in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Check whether the user was enrolled
+     *
+     * @return True if enrolled
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,275 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.sdk.ChaincodeResponse;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+import com.example.hlfnetworkapplication.util.Strings;
+
+/**
+ * Sends chaincode queries to one peer at a time. If the peer has not answered
+ * within the hedge delay, the query is also sent to a second peer, and the
+ * first successful response wins. The other query is cancelled. A failed
+ * query moves on to the next peer at once.
+ *
+ * The hedge delay follows a percentile of the latency of recent queries, so
+ * only the slowest share of queries is sent twice.
+ *
+ * @author kehm
+ */
+public class HedgedQuery {
+
+    private static final Logger LOG = Logger.getLogger(HedgedQuery.class);
+
+    private static final int WINDOW = 128; // number of recent latencies the delay is computed from
+    private static final int RECOMPUTE_INTERVAL = 16; // samples between delay updates
+
+    private final PeerLatencyTracker peerLatency; // orders the first two peers by proposal latency, and is sampled by each query
+    private final double percentile; // percentile of recent latency used as hedge delay
+    private final long minDelay; // lower bound of hedge delay in milliseconds
+    private final long[] recent = new long[WINDOW]; // recent latencies in milliseconds, guarded by this
+    private int samples; // number of samples recorded, guarded by this
+    private volatile long hedgeDelay; // current hedge delay in milliseconds
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final ExecutorService executor = Executors.newCachedThreadPool((r) -> {
+        Thread thread = new Thread(r, "query-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread thread = new Thread(r, "query-hedge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructor for HedgedQuery object
+     *
+     * @param peerLatency Tracked latency of peers
+     * @param percentile Percentile of recent latency used as hedge delay
+     * @param minDelay Lower bound of hedge delay in milliseconds
+     * @param initialDelay Hedge delay until enough latencies are recorded
+     */
+    public HedgedQuery(PeerLatencyTracker peerLatency, double percentile, long minDelay, long initialDelay) {
+        this.peerLatency = peerLatency;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.hedgeDelay = Math.max(minDelay, initialDelay);
+    }
+
+    /**
+     * Query the peers and return the first successful payload
+     *
+     * @param channel Channel to query on
+     * @param request Query request
+     * @param peers Peers that can answer the query
+     * @return Payload of the first successful response, or null if it has no
+     * payload
+     * @throws InvalidArgumentException if no peers are given
+     * @throws ProposalException if all peers fail or the query times out
+     */
+    public String query(Channel channel, QueryByChaincodeRequest request, Collection<Peer> peers) throws InvalidArgumentException, ProposalException {
+        if (peers.isEmpty()) {
+            throw new InvalidArgumentException("No peers to query");
+        }
+        Race race = new Race(channel, request, order(peers));
+        race.launch();
+        ScheduledFuture<?> hedge = peers.size() > 1 ? timer.schedule(race::hedge, hedgeDelay, TimeUnit.MILLISECONDS) : null;
+        try {
+            return race.result.get(Long.valueOf(Strings.PROPOSAL_TIMEOUT), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ProposalException) {
+                throw (ProposalException) ex.getCause();
+            }
+            if (ex.getCause() instanceof InvalidArgumentException) {
+                throw (InvalidArgumentException) ex.getCause();
+            }
+            throw new ProposalException(ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new ProposalException("Query timed out after " + Strings.PROPOSAL_TIMEOUT + " ms", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ProposalException(ex);
+        } finally {
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+            race.cancel();
+        }
+    }
+
+    /**
+     * Get current hedge delay
+     *
+     * @return Delay in milliseconds
+     */
+    public long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * Get number of queries sent to a second peer after the hedge delay
+     *
+     * @return Hedged queries
+     */
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    /**
+     * Get number of hedged queries answered first by the second peer
+     *
+     * @return Hedge wins
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Order peers randomly, and put the faster of the first two first
+     */
+    List<Peer> order(Collection<Peer> peers) {
+        List<Peer> ordered = new ArrayList<>(peers);
+        Collections.shuffle(ordered, ThreadLocalRandom.current());
+        if (ordered.size() > 1 && getLatency(ordered.get(1)) < getLatency(ordered.get(0))) {
+            Collections.swap(ordered, 0, 1);
+        }
+        return ordered;
+    }
+
+    private double getLatency(Peer peer) {
+        return peerLatency.getLatency(PeerLatencyTracker.getEndpoint(peer.getUrl()));
+    }
+
+    /**
+     * Record latency of a successful query and update the hedge delay
+     */
+    private synchronized void record(long millis) {
+        recent[samples % WINDOW] = millis;
+        samples++;
+        if (samples % RECOMPUTE_INTERVAL == 0) {
+            long[] sorted = Arrays.copyOf(recent, Math.min(samples, WINDOW));
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            hedgeDelay = Math.max(minDelay, sorted[Math.max(0, index)]);
+        }
+    }
+
+    /**
+     * Queries of a request racing across peers
+     */
+    private class Race {
+
+        private final Channel channel;
+        private final QueryByChaincodeRequest request;
+        private final List<Peer> peers;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final List<Future<?>> attempts = new ArrayList<>(); // guarded by this
+        private int launched; // guarded by this
+        private int failed; // guarded by this
+
+        private Race(Channel channel, QueryByChaincodeRequest request, List<Peer> peers) {
+            this.channel = channel;
+            this.request = request;
+            this.peers = peers;
+        }
+
+        /**
+         * Send the query to the next peer
+         *
+         * @return True if the query was sent
+         */
+        private synchronized boolean launch() {
+            if (result.isDone() || launched >= peers.size()) {
+                return false;
+            }
+            Peer peer = peers.get(launched);
+            boolean second = launched > 0;
+            launched++;
+            attempts.add(executor.submit(() -> attempt(peer, second)));
+            return true;
+        }
+
+        /**
+         * Send the query to the next peer after the hedge delay
+         */
+        private void hedge() {
+            if (launch()) {
+                hedged.incrementAndGet();
+                LOG.debug("Hedged query after " + hedgeDelay + " ms");
+            }
+        }
+
+        private void attempt(Peer peer, boolean second) {
+            long start = System.nanoTime();
+            try {
+                Collection<ProposalResponse> responses = channel.queryByChaincode(request, Collections.singletonList(peer));
+                for (ProposalResponse response : responses) {
+                    if (response.getStatus() == ChaincodeResponse.Status.SUCCESS) {
+                        String payload;
+                        try {
+                            payload = new String(response.getChaincodeActionResponsePayload());
+                        } catch (InvalidArgumentException ex) {
+                            LOG.info("Query returned no payload");
+                            payload = null;
+                        }
+                        long elapsed = System.nanoTime() - start;
+                        peerLatency.record(PeerLatencyTracker.getEndpoint(peer.getUrl()), elapsed);
+                        record(TimeUnit.NANOSECONDS.toMillis(elapsed));
+                        if (result.complete(payload) && second) {
+                            hedgeWins.incrementAndGet();
+                        }
+                        return;
+                    }
+                    fail(new ProposalException("Query to peer '" + peer.getName() + "' failed: " + response.getMessage()));
+                    return;
+                }
+                fail(new ProposalException("No response from peer '" + peer.getName() + "'"));
+            } catch (InvalidArgumentException | ProposalException ex) {
+                fail(ex);
+            }
+        }
+
+        /**
+         * Move on to the next peer, or fail the query if all peers failed
+         */
+        private synchronized void fail(Exception ex) {
+            failed++;
+            LOG.info("Query attempt failed", ex);
+            if (!launch() && failed == launched) {
+                result.completeExceptionally(ex);
+            }
+        }
+
+        /**
+         * Cancel queries still running
+         */
+        private synchronized void cancel() {
+            for (Future<?> attempt : attempts) {
+                attempt.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDChaindcode;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDEndorser;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDEndorserState;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDLayout;
+
+/**
+ * Index of discovered layouts by organization, built once per discovery
+ * snapshot. For a pair of endorser and invoker organizations the index holds
+ * the layouts where exactly one group belongs to each organization, which are
+ * the layouts the significance selector accepts. Selection then draws a random
+ * candidate layout and one random peer from each of its two groups, without
+ * scanning or copying the other layouts.
+ *
+ * The index is keyed to the snapshot by a fingerprint of the layouts, their
+ * groups and the endpoints of their peers, so a selector can tell from
+ * {@link #fingerprint(SDChaindcode)} whether discovery returned new layouts.
+ *
+ * Groups returned by service discovery hold the peers of a single
+ * organization. If a snapshot contains a group with peers from several
+ * organizations the snapshot cannot be indexed, and {@link #isIndexed()}
+ * returns false.
+ *
+ * @author kehm
+ */
+public class LayoutIndex {
+
+    private static final int[] NO_CANDIDATES = new int[0];
+
+    /**
+     * Picks one peer from the peers of a group
+     */
+    public interface PeerPicker {
+
+        /**
+         * Pick a peer
+         *
+         * @param peers Peers of a group, never empty
+         * @return Picked peer
+         */
+        SDEndorser pick(SDEndorser[] peers);
+    }
+
+    /**
+     * Pick a random peer
+     */
+    public static final PeerPicker RANDOM_PEER = (peers) -> peers[ThreadLocalRandom.current().nextInt(peers.length)];
+
+    private final String[][] groupOrgs; // organization of each group in each layout
+    private final SDEndorser[][][] peers; // peers of each group in each layout
+    private final boolean indexed; // false if any group holds peers from several organizations
+    private final long fingerprint; // fingerprint of the indexed snapshot
+    private final Map<String, Map<String, int[]>> candidates = new ConcurrentHashMap<>(); // endorser -> invoker -> (layout, group, group) triples
+
+    /**
+     * Constructor for LayoutIndex object
+     *
+     * @param sdc Discovered layouts for a chaincode
+     */
+    public LayoutIndex(SDChaindcode sdc) {
+        List<SDLayout> layouts = sdc.getLayouts();
+        groupOrgs = new String[layouts.size()][];
+        peers = new SDEndorser[layouts.size()][][];
+        boolean single = true;
+        int l = 0;
+        for (SDLayout layout : layouts) {
+            Collection<SDLayout.SDLGroup> groups = layout.getSDLGroups();
+            groupOrgs[l] = new String[groups.size()];
+            peers[l] = new SDEndorser[groups.size()][];
+            int g = 0;
+            for (SDLayout.SDLGroup group : groups) {
+                SDEndorser[] endorsers = group.getEndorsers().toArray(new SDEndorser[0]);
+                String org = endorsers.length == 0 ? null : getOrganization(endorsers[0].getMspid());
+                for (SDEndorser endorser : endorsers) {
+                    single &= getOrganization(endorser.getMspid()).equals(org);
+                }
+                groupOrgs[l][g] = org;
+                peers[l][g] = endorsers;
+                g++;
+            }
+            l++;
+        }
+        indexed = single;
+        fingerprint = fingerprint(sdc);
+    }
+
+    /**
+     * Compute the fingerprint of the layouts of a snapshot from the groups of
+     * each layout and the organization and endpoint of each peer
+     *
+     * @param sdc Discovered layouts for a chaincode
+     * @return Fingerprint
+     */
+    public static long fingerprint(SDChaindcode sdc) {
+        long hash = 1;
+        for (SDLayout layout : sdc.getLayouts()) {
+            for (SDLayout.SDLGroup group : layout.getSDLGroups()) {
+                for (SDEndorser endorser : group.getEndorsers()) {
+                    hash = 31 * hash + endorser.getMspid().hashCode();
+                    hash = 31 * hash + endorser.getEndpoint().hashCode();
+                }
+                hash = 31 * hash + 1; // end of group
+            }
+            hash = 31 * hash + 2; // end of layout
+        }
+        return hash;
+    }
+
+    /**
+     * Get fingerprint of the indexed snapshot
+     *
+     * @return Fingerprint
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Check whether the snapshot could be indexed
+     *
+     * @return True if every group holds peers from a single organization
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Get number of indexed layouts
+     *
+     * @return Number of layouts
+     */
+    public int getLayoutCount() {
+        return peers.length;
+    }
+
+    /**
+     * Select a layout containing both organizations and pick one peer from
+     * each of them
+     *
+     * @param sdc Discovered layouts passed to the endorsement selector
+     * @param endorser Endorser organization in lower case
+     * @param invoker Invoker organization in lower case
+     * @param picker Picks a peer from each of the two groups
+     * @return Endorser state, or null if the layouts in sdc no longer match the
+     * index
+     */
+    public SDEndorserState select(SDChaindcode sdc, String endorser, String invoker, PeerPicker picker) {
+        List<SDLayout> layouts = sdc.getLayouts();
+        if (layouts.size() != peers.length) {
+            return null;
+        }
+        final SDEndorserState sdEndorserState = new SDEndorserState();
+        int[] triples = getCandidates(endorser, invoker);
+        if (triples.length == 0) {
+            sdEndorserState.setPickedEndorsers(Collections.emptyList());
+            return sdEndorserState;
+        }
+        int count = triples.length / 3;
+        int start = ThreadLocalRandom.current().nextInt(count);
+        for (int k = 0; k < count; k++) {
+            int c = ((start + k) % count) * 3;
+            SDEndorser first = picker.pick(peers[triples[c]][triples[c + 1]]);
+            SDEndorser second = picker.pick(peers[triples[c]][triples[c + 2]]);
+            if (first.getEndpoint().equals(second.getEndpoint())) {
+                continue; // same peer picked for both organizations
+            }
+            SDLayout layout = layouts.get(triples[c]);
+            SDEndorser[] picked = resolve(layout, triples[c], triples[c + 1], first, triples[c + 2], second);
+            if (picked == null) {
+                return null;
+            }
+            sdEndorserState.setPickedEndorsers(Arrays.asList(picked));
+            sdEndorserState.setPickedLayout(layout);
+            return sdEndorserState;
+        }
+        sdEndorserState.setPickedEndorsers(Collections.emptyList());
+        return sdEndorserState;
+    }
+
+    /**
+     * Get organization name from MSP ID
+     *
+     * @param mspId MSP ID
+     * @return Organization name in lower case
+     */
+    public static String getOrganization(String mspId) {
+        int suffix = mspId.indexOf("MSP");
+        return (suffix < 0 ? mspId : mspId.substring(0, suffix)).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Get candidate layouts for the pair of organizations, computing them on
+     * first use
+     *
+     * @param endorser Endorser organization
+     * @param invoker Invoker organization
+     * @return Flattened (layout, group, group) triples
+     */
+    private int[] getCandidates(String endorser, String invoker) {
+        Map<String, int[]> byInvoker = candidates.get(endorser);
+        if (byInvoker == null) {
+            byInvoker = candidates.computeIfAbsent(endorser, (key) -> new ConcurrentHashMap<>());
+        }
+        int[] triples = byInvoker.get(invoker);
+        if (triples == null) {
+            triples = findCandidates(endorser, invoker);
+            byInvoker.put(invoker, triples);
+        }
+        return triples;
+    }
+
+    /**
+     * Find layouts with exactly one group for each organization, or exactly
+     * two groups if endorser and invoker are the same organization
+     *
+     * @param endorser Endorser organization
+     * @param invoker Invoker organization
+     * @return Flattened (layout, group, group) triples
+     */
+    private int[] findCandidates(String endorser, String invoker) {
+        int[] triples = new int[groupOrgs.length * 3];
+        int size = 0;
+        boolean same = endorser.equals(invoker);
+        for (int l = 0; l < groupOrgs.length; l++) {
+            int first = -1;
+            int second = -1;
+            int endorserGroups = 0;
+            int invokerGroups = 0;
+            for (int g = 0; g < groupOrgs[l].length; g++) {
+                String org = groupOrgs[l][g];
+                if (same && endorser.equals(org)) {
+                    if (first < 0) {
+                        first = g;
+                    } else {
+                        second = g;
+                    }
+                    endorserGroups++;
+                } else if (endorser.equals(org)) {
+                    first = g;
+                    endorserGroups++;
+                } else if (invoker.equals(org)) {
+                    second = g;
+                    invokerGroups++;
+                }
+            }
+            if (same ? endorserGroups == 2 : endorserGroups == 1 && invokerGroups == 1) {
+                triples[size++] = l;
+                triples[size++] = first;
+                triples[size++] = second;
+            }
+        }
+        return size == 0 ? NO_CANDIDATES : Arrays.copyOf(triples, size);
+    }
+
+    /**
+     * Resolve the picked peers against the layout passed to the selector, so
+     * that the returned endorsers belong to the current snapshot
+     *
+     * @return Picked endorsers, or null if the layout does not match the index
+     */
+    private SDEndorser[] resolve(SDLayout layout, int l, int firstGroup, SDEndorser first, int secondGroup, SDEndorser second) {
+        Collection<SDLayout.SDLGroup> groups = layout.getSDLGroups();
+        if (groups.size() != peers[l].length) {
+            return null;
+        }
+        SDEndorser[] picked = new SDEndorser[2];
+        int g = 0;
+        for (SDLayout.SDLGroup group : groups) {
+            if (g == firstGroup) {
+                picked[0] = find(group.getEndorsers(), first.getEndpoint());
+            } else if (g == secondGroup) {
+                picked[1] = find(group.getEndorsers(), second.getEndpoint());
+            }
+            g++;
+        }
+        return picked[0] == null || picked[1] == null ? null : picked;
+    }
+
+    /**
+     * Find peer by endpoint
+     */
+    private static SDEndorser find(Collection<SDEndorser> endorsers, String endpoint) {
+        for (SDEndorser endorser : endorsers) {
+            if (endorser.getEndpoint().equals(endpoint)) {
+                return endorser;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,176 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.Orderer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.User;
+import org.hyperledger.fabric.sdk.exception.TransactionException;
+
+/**
+ * Routes transactions to the orderer with the lowest recent latency. Each
+ * transaction is broadcast to one orderer at a time, and to the next orderer
+ * in order of latency if the broadcast fails. An orderer failing a broadcast
+ * is marked down and only tried after the healthy orderers until its down
+ * time has passed, when the next transaction routed to it checks whether it
+ * has recovered. Orderers without a latency yet are tried first, so that
+ * every orderer is measured.
+ *
+ * @author kehm
+ */
+public class OrdererRouter {
+
+    private static final Logger LOG = Logger.getLogger(OrdererRouter.class);
+
+    private static final double ALPHA = 0.2; // weight of the newest sample in the moving average
+    private static final double DOWN_PENALTY = 1e9; // added to the latency of an orderer marked down
+
+    private final long downTime; // time an orderer is avoided after a failure in nanoseconds
+    private final Map<String, OrdererStats> stats = new ConcurrentHashMap<>(); // statistics by orderer URL
+
+    /**
+     * Constructor for OrdererRouter object
+     *
+     * @param downTime Time an orderer is avoided after a failure in
+     * milliseconds
+     */
+    public OrdererRouter(long downTime) {
+        this.downTime = TimeUnit.MILLISECONDS.toNanos(downTime);
+    }
+
+    /**
+     * Broadcast a transaction to the orderers of a channel, in order of
+     * latency until one accepts it
+     *
+     * @param channel Channel to send the transaction on
+     * @param responses Endorsed proposal responses
+     * @param user User signing the transaction
+     * @return Future completed when an orderer has accepted the transaction
+     */
+    public CompletableFuture<BlockEvent.TransactionEvent> send(Channel channel, Collection<ProposalResponse> responses, User user) {
+        CompletableFuture<BlockEvent.TransactionEvent> result = new CompletableFuture<>();
+        List<Orderer> orderers = rank(channel.getOrderers());
+        if (orderers.isEmpty()) {
+            result.completeExceptionally(new TransactionException("No orderers on channel '" + channel.getName() + "'"));
+        } else {
+            attempt(channel, responses, user, orderers, 0, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get moving average of broadcast latency for an orderer
+     *
+     * @param url Orderer URL
+     * @return Latency in milliseconds, 0 if unknown
+     */
+    public double getLatency(String url) {
+        OrdererStats ordererStats = stats.get(url);
+        return ordererStats == null ? 0 : ordererStats.latency;
+    }
+
+    /**
+     * Check whether an orderer is avoided after a failure
+     *
+     * @param url Orderer URL
+     * @return True if the orderer is marked down
+     */
+    public boolean isDown(String url) {
+        OrdererStats ordererStats = stats.get(url);
+        return ordererStats != null && ordererStats.isDown(System.nanoTime());
+    }
+
+    /**
+     * Order orderers by health and latency
+     */
+    List<Orderer> rank(Collection<Orderer> orderers) {
+        long now = System.nanoTime();
+        // snapshot the scores, the statistics change while sorting
+        Map<Orderer, Double> scores = new IdentityHashMap<>();
+        for (Orderer orderer : orderers) {
+            OrdererStats ordererStats = getStats(orderer);
+            scores.put(orderer, (ordererStats.isDown(now) ? DOWN_PENALTY : 0) + ordererStats.latency);
+        }
+        List<Orderer> ranked = new ArrayList<>(orderers);
+        ranked.sort(Comparator.comparingDouble(scores::get));
+        return ranked;
+    }
+
+    private void attempt(Channel channel, Collection<ProposalResponse> responses, User user, List<Orderer> orderers, int index, CompletableFuture<BlockEvent.TransactionEvent> result) {
+        Orderer orderer = orderers.get(index);
+        long start = System.nanoTime();
+        CompletableFuture<BlockEvent.TransactionEvent> sent;
+        try {
+            sent = channel.sendTransaction(responses, Channel.TransactionOptions.createTransactionOptions()
+                    .userContext(user)
+                    .orderers(orderer)
+                    .shuffleOrders(false)
+                    .nOfEvents(Channel.NOfEvents.createNoEvents()));
+        } catch (RuntimeException ex) {
+            sent = new CompletableFuture<>();
+            sent.completeExceptionally(ex);
+        }
+        if (sent == null) {
+            sent = new CompletableFuture<>();
+            sent.completeExceptionally(new TransactionException("Transaction not sent to orderer '" + orderer.getName() + "'"));
+        }
+        sent.whenComplete((ack, ex) -> {
+            OrdererStats ordererStats = getStats(orderer);
+            if (ex == null) {
+                ordererStats.success(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                result.complete(ack);
+                return;
+            }
+            ordererStats.failure(System.nanoTime() + downTime);
+            if (index + 1 < orderers.size()) {
+                LOG.info("Orderer '" + orderer.getName() + "' failed (" + ex.getMessage() + "). Failing over to '" + orderers.get(index + 1).getName() + "'");
+                attempt(channel, responses, user, orderers, index + 1, result);
+            } else {
+                result.completeExceptionally(ex);
+            }
+        });
+    }
+
+    private OrdererStats getStats(Orderer orderer) {
+        OrdererStats ordererStats = stats.get(orderer.getUrl());
+        if (ordererStats == null) {
+            ordererStats = stats.computeIfAbsent(orderer.getUrl(), (url) -> new OrdererStats());
+        }
+        return ordererStats;
+    }
+
+    /**
+     * Broadcast statistics for an orderer
+     */
+    private static class OrdererStats {
+
+        private volatile double latency; // moving average in milliseconds, 0 until measured
+        private volatile long downUntil; // System.nanoTime() until the orderer is avoided
+        private volatile boolean down;
+
+        private synchronized void success(long millis) {
+            latency = latency == 0 ? Math.max(millis, 1) : latency + ALPHA * (millis - latency);
+            down = false;
+        }
+
+        private synchronized void failure(long until) {
+            downUntil = until;
+            down = true;
+        }
+
+        private boolean isDown(long now) {
+            return down && now - downUntil < 0;
+        }
+    }
+}
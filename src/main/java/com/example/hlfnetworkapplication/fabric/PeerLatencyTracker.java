@@ -0,0 +1,235 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.ServiceDiscovery;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDEndorser;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDEndorserState;
+import org.hyperledger.fabric.sdk.ServiceDiscovery.SDLayout;
+
+/**
+ * Tracks proposal latency and outstanding proposals for each peer endpoint,
+ * and picks peers within an endorsement group by the power of two choices.
+ * Two random peers of the group are compared and the one with the lowest
+ * latency weighted by its outstanding proposals is picked. A small share of
+ * picks is random so that slow peers are probed and can recover.
+ *
+ * Latency is sampled per peer. Queries are sent to one peer at a time and are
+ * recorded with {@link #record(String, long)}. The SDK sends a transaction
+ * proposal to all picked endorsers in parallel and only returns when all have
+ * answered, so the elapsed time is the latency of the slowest responder,
+ * and the SDK does not tell which peer that was. The elapsed time is charged
+ * to the responder without samples, or else to the responder with the
+ * highest latency, assumed to be the slowest. Faster responders are not
+ * sampled by that proposal, and if the assumption is wrong, the charged peer
+ * is overestimated until later samples correct it. Peers the
+ * selector picked but the SDK did not use, such as picks of an abandoned
+ * layout or of a selection retry, are only released. A peer that answered
+ * with a chaincode error has endorsed normally and is not penalised, only
+ * peers that could not be reached are. Picks are recorded for the calling
+ * thread between {@link #begin()} and {@link #complete(Collection, long)},
+ * since the SDK calls the endorsement selector on the thread sending the
+ * proposal.
+ *
+ * @author kehm
+ */
+public class PeerLatencyTracker implements LayoutIndex.PeerPicker {
+
+    private static final double ALPHA = 0.2; // weight of the latest sample in the moving average
+    private static final double FAILURE_PENALTY = 2.0; // latency multiplier for peers that could not be reached
+
+    private final double probeRate; // share of picks that are random
+    private final Map<String, PeerStats> stats = new ConcurrentHashMap<>();
+    private final ThreadLocal<List<String>> picks = ThreadLocal.withInitial(ArrayList::new); // peers picked by the current proposal
+
+    /**
+     * Constructor for PeerLatencyTracker object
+     *
+     * @param probeRate Share of picks that are random, between 0 and 1
+     */
+    public PeerLatencyTracker(double probeRate) {
+        this.probeRate = probeRate;
+    }
+
+    @Override
+    public SDEndorser pick(SDEndorser[] peers) {
+        SDEndorser picked;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (peers.length == 1) {
+            picked = peers[0];
+        } else if (random.nextDouble() < probeRate) {
+            picked = peers[random.nextInt(peers.length)];
+        } else {
+            int first = random.nextInt(peers.length);
+            int second = random.nextInt(peers.length - 1);
+            if (second >= first) {
+                second++;
+            }
+            picked = getScore(peers[first]) <= getScore(peers[second]) ? peers[first] : peers[second];
+        }
+        getStats(picked.getEndpoint()).outstanding.incrementAndGet();
+        picks.get().add(picked.getEndpoint());
+        return picked;
+    }
+
+    /**
+     * Start recording picks for a proposal sent from the calling thread
+     */
+    public void begin() {
+        release();
+    }
+
+    /**
+     * Record the outcome of the proposal sent from the calling thread, and
+     * release its picks. The slowest responder is charged with the elapsed
+     * time. A peer that could not be reached is charged with a penalty.
+     *
+     * @param responses Proposal responses, or null if the proposal failed
+     * @param elapsed Time in nanoseconds from selecting the endorsers to the
+     * last response
+     */
+    public void complete(Collection<ProposalResponse> responses, long elapsed) {
+        if (responses != null) {
+            double millis = elapsed / 1_000_000.0;
+            PeerStats slowest = null; // answered peer assumed to have answered last
+            for (ProposalResponse response : responses) {
+                if (response.getPeer() == null) {
+                    continue;
+                }
+                PeerStats peerStats = getStats(getEndpoint(response.getPeer().getUrl()));
+                if (response.getProposalResponse() == null) {
+                    // no answer from the peer, a chaincode error still has a proposal response
+                    peerStats.update(Math.max(millis, peerStats.latency) * FAILURE_PENALTY);
+                } else if (slowest == null || slowest.latency != 0 && (peerStats.latency == 0 || peerStats.latency > slowest.latency)) {
+                    slowest = peerStats;
+                }
+            }
+            if (slowest != null && elapsed > 0) {
+                slowest.update(millis);
+            }
+        }
+        release();
+    }
+
+    /**
+     * Record the latency of a request answered by a single peer
+     *
+     * @param endpoint Peer endpoint as host:port
+     * @param elapsed Elapsed time in nanoseconds
+     */
+    public void record(String endpoint, long elapsed) {
+        getStats(endpoint).update(elapsed / 1_000_000.0);
+    }
+
+    /**
+     * Get moving average of proposal latency for a peer
+     *
+     * @param endpoint Peer endpoint as host:port
+     * @return Latency in milliseconds, 0 if unknown
+     */
+    public double getLatency(String endpoint) {
+        PeerStats peerStats = stats.get(endpoint);
+        return peerStats == null ? 0 : peerStats.latency;
+    }
+
+    /**
+     * Get number of outstanding proposals for a peer
+     *
+     * @param endpoint Peer endpoint as host:port
+     * @return Outstanding proposals
+     */
+    public int getOutstanding(String endpoint) {
+        PeerStats peerStats = stats.get(endpoint);
+        return peerStats == null ? 0 : peerStats.outstanding.get();
+    }
+
+    /**
+     * Create an endorsement selector that picks a random layout and the
+     * required number of peers from each group using the tracked latencies
+     *
+     * @return Endorsement selector
+     */
+    public ServiceDiscovery.EndorsementSelector newRandomLayoutSelector() {
+        return (sdc) -> {
+            List<SDEndorser> picked = new ArrayList<>();
+            List<SDLayout> layouts = sdc.getLayouts();
+            SDLayout layout = layouts.get(ThreadLocalRandom.current().nextInt(layouts.size()));
+            for (SDLayout.SDLGroup group : layout.getSDLGroups()) {
+                SDEndorser[] peers = group.getEndorsers().toArray(new SDEndorser[0]);
+                int required = Math.min(group.getStillRequired(), peers.length);
+                if (required == 1) {
+                    picked.add(pick(peers));
+                } else if (required > 1) {
+                    Arrays.sort(peers, Comparator.comparingDouble(this::getScore));
+                    for (int i = 0; i < required; i++) {
+                        getStats(peers[i].getEndpoint()).outstanding.incrementAndGet();
+                        picks.get().add(peers[i].getEndpoint());
+                        picked.add(peers[i]);
+                    }
+                }
+            }
+            final SDEndorserState sdEndorserState = new SDEndorserState();
+            sdEndorserState.setPickedEndorsers(picked);
+            sdEndorserState.setPickedLayout(layout);
+            return sdEndorserState;
+        };
+    }
+
+    /**
+     * Get endpoint as host:port from a peer URL
+     *
+     * @param url Peer URL
+     * @return Endpoint
+     */
+    public static String getEndpoint(String url) {
+        int scheme = url.indexOf("://");
+        return scheme < 0 ? url : url.substring(scheme + 3);
+    }
+
+    /**
+     * Release outstanding proposals picked by the calling thread
+     */
+    private void release() {
+        List<String> endpoints = picks.get();
+        for (String endpoint : endpoints) {
+            getStats(endpoint).outstanding.decrementAndGet();
+        }
+        endpoints.clear();
+    }
+
+    /**
+     * Get score of a peer. Lower is better. Peers without samples score 0 and
+     * are picked first.
+     */
+    private double getScore(SDEndorser peer) {
+        PeerStats peerStats = stats.get(peer.getEndpoint());
+        return peerStats == null ? 0 : peerStats.latency * (peerStats.outstanding.get() + 1);
+    }
+
+    private PeerStats getStats(String endpoint) {
+        PeerStats peerStats = stats.get(endpoint);
+        return peerStats != null ? peerStats : stats.computeIfAbsent(endpoint, (key) -> new PeerStats());
+    }
+
+    /**
+     * Latency and load of a peer
+     */
+    private static class PeerStats {
+
+        private volatile double latency; // moving average in milliseconds
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private synchronized void update(double sample) {
+            latency = latency == 0 ? sample : ALPHA * sample + (1 - ALPHA) * latency;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+
+/**
+ * Transaction in flight, with a future for each stage the caller can act on.
+ * The proposal responses are available once endorsement and the RW set
+ * consistency check have passed, before the transaction is ordered.
+ *
+ * @author kehm
+ */
+public class PendingTransaction {
+
+    private final CompletableFuture<Collection<ProposalResponse>> endorsed; // consistent proposal responses
+    private final CompletableFuture<TransactionResult> committed; // committed transaction
+
+    /**
+     * Constructor for PendingTransaction object
+     *
+     * @param endorsed Future completed with the consistent proposal responses
+     * @param committed Future completed with the committed transaction
+     */
+    PendingTransaction(CompletableFuture<Collection<ProposalResponse>> endorsed, CompletableFuture<TransactionResult> committed) {
+        this.endorsed = endorsed;
+        this.committed = committed;
+    }
+
+    /**
+     * Get future completed when the transaction is endorsed
+     *
+     * @return Future completed with the consistent proposal responses
+     */
+    public CompletableFuture<Collection<ProposalResponse>> getEndorsed() {
+        return endorsed;
+    }
+
+    /**
+     * Get future completed when the transaction is committed
+     *
+     * @return Future completed with the committed transaction
+     */
+    public CompletableFuture<TransactionResult> getCommitted() {
+        return committed;
+    }
+}
@@ -0,0 +1,201 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import com.example.hlfnetworkapplication.util.Strings;
+
+/**
+ * Cache for records returned by the RecordRelationshipContract query, keyed by
+ * record reference. The least recently used record is evicted when the cache
+ * is full. A record is invalidated when a valid create, update or log
+ * transaction for the reference is committed. Query transactions also append
+ * a READ entry to the access log of the record but do not invalidate it, so
+ * the access log of a cached record may lack the reads made since it was
+ * cached. Reads are still logged on the ledger.
+ *
+ * A query that started before an invalidation may return the old record after
+ * it. Such results are not cached: invalidations advance the generation of
+ * the reference, and a result is only stored if the generation is unchanged
+ * since the query started. Generations are kept for a fixed number of stripes
+ * of references, so an invalidation of another reference in the same stripe
+ * may also keep a result from being cached.
+ *
+ * @author kehm
+ */
+public class RecordCache {
+
+    private static final Logger LOG = Logger.getLogger(RecordCache.class);
+    private static final int GENERATION_STRIPES = 256;
+
+    private final Map<String, String> records; // record payload for each reference, in access order
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final long[] generations = new long[GENERATION_STRIPES]; // number of invalidations of each stripe, guarded by this
+    private Channel channel;
+    private String blockListenerHandle;
+
+    /**
+     * Constructor for RecordCache object
+     *
+     * @param capacity Maximum number of cached records
+     */
+    public RecordCache(int capacity) {
+        this.records = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get cached record
+     *
+     * @param ref Record reference
+     * @return Record payload, or null if not cached
+     */
+    public synchronized String get(String ref) {
+        String payload = records.get(ref);
+        if (payload != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return payload;
+    }
+
+    /**
+     * Get current generation of a reference. Pass the generation read before
+     * a query to {@link #put(String, String, long)} when the query completes.
+     *
+     * @param ref Record reference
+     * @return Generation
+     */
+    public synchronized long getGeneration(String ref) {
+        return generations[stripe(ref)];
+    }
+
+    /**
+     * Cache a record unless an invalidation happened since the query for it
+     * started
+     *
+     * @param ref Record reference
+     * @param payload Record payload
+     * @param queryGeneration Generation read before the query was sent
+     * @return True if the record was cached
+     */
+    public synchronized boolean put(String ref, String payload, long queryGeneration) {
+        if (queryGeneration != generations[stripe(ref)]) {
+            return false;
+        }
+        records.put(ref, payload);
+        return true;
+    }
+
+    /**
+     * Remove a record from the cache
+     *
+     * @param ref Record reference
+     */
+    public synchronized void invalidate(String ref) {
+        generations[stripe(ref)]++;
+        records.remove(ref);
+    }
+
+    /**
+     * Remove all records from the cache
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < generations.length; i++) {
+            generations[i]++;
+        }
+        records.clear();
+    }
+
+    /**
+     * Invalidate records changed by transactions committed on the channel
+     *
+     * @param channel Channel to listen on
+     * @throws InvalidArgumentException if the block listener cannot be
+     * registered
+     */
+    public void registerBlockListener(Channel channel) throws InvalidArgumentException {
+        this.channel = channel;
+        blockListenerHandle = channel.registerBlockListener(this::invalidateChanged);
+    }
+
+    /**
+     * Unregister the block listener
+     */
+    public void close() {
+        if (blockListenerHandle != null) {
+            try {
+                channel.unregisterBlockListener(blockListenerHandle);
+            } catch (InvalidArgumentException ex) {
+                LOG.error("Could not unregister record cache block listener", ex);
+            }
+        }
+    }
+
+    /**
+     * Get number of reads answered from the cache
+     *
+     * @return Cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get number of reads that had to query the ledger
+     *
+     * @return Cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get number of cached records
+     *
+     * @return Size
+     */
+    public synchronized int size() {
+        return records.size();
+    }
+
+    private static int stripe(String ref) {
+        return (ref.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /**
+     * Invalidate the records of the valid create, update and log transactions
+     * of a block
+     */
+    private void invalidateChanged(BlockEvent blockEvent) {
+        for (BlockEvent.TransactionEvent transactionEvent : blockEvent.getTransactionEvents()) {
+            if (!transactionEvent.isValid()) {
+                continue;
+            }
+            for (BlockInfo.TransactionEnvelopeInfo.TransactionActionInfo action : transactionEvent.getTransactionActionInfos()) {
+                // first argument is the function, second the record reference
+                if (Strings.RRC_CHAINCODE_NAME.equals(action.getChaincodeIDName()) && action.getChaincodeInputArgsCount() >= 2
+                        && isChange(new String(action.getChaincodeInputArgs(0), StandardCharsets.UTF_8))) {
+                    invalidate(new String(action.getChaincodeInputArgs(1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    private static boolean isChange(String function) {
+        return function.equals(Strings.RRC_CHAINCODE_FUNCTION_CREATE) || function.equals(Strings.RRC_CHAINCODE_FUNCTION_UPDATE) || function.equals(Strings.RRC_CHAINCODE_FUNCTION_LOG);
+    }
+}
@@ -0,0 +1,157 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.Orderer;
+import org.hyperledger.fabric.sdk.Peer;
+
+/**
+ * Channel state saved by the last run, used to warm up the next run before
+ * the user enrolls. Holds the last enrolled user, and the peers and orderers
+ * of the channel including those found by service discovery.
+ *
+ * The file has one entry on each line, as user;affiliation;name,
+ * peer;name;url or orderer;name;url. Other lines are ignored. It is replaced
+ * atomically when saved.
+ *
+ * @author kehm
+ */
+public class StartupCache {
+
+    private static final Logger LOG = Logger.getLogger(StartupCache.class);
+
+    private String userAffiliation; // null if no user has enrolled
+    private String userName;
+    private final List<String[]> peers = new ArrayList<>(); // name and url
+    private final List<String[]> orderers = new ArrayList<>(); // name and url
+
+    /**
+     * Read the cache saved by the last run
+     *
+     * @param path Path of the cache file
+     * @return Cache, empty if the file does not exist or cannot be read
+     */
+    public static StartupCache load(Path path) {
+        StartupCache cache = new StartupCache();
+        if (!Files.isRegularFile(path)) {
+            return cache;
+        }
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] args = line.split(";");
+                if (args.length == 3 && args[0].equals("user")) {
+                    cache.setUser(args[1], args[2]);
+                } else if (args.length == 3 && args[0].equals("peer")) {
+                    cache.peers.add(new String[]{args[1], args[2]});
+                } else if (args.length == 3 && args[0].equals("orderer")) {
+                    cache.orderers.add(new String[]{args[1], args[2]});
+                }
+            }
+        } catch (IOException ex) {
+            LOG.error("Could not read startup cache '" + path + "'. Starting cold", ex);
+            return new StartupCache();
+        }
+        return cache;
+    }
+
+    /**
+     * Save the cache, replacing the file of the last run
+     *
+     * @param path Path of the cache file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        Path tmp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            if (userAffiliation != null) {
+                bw.write("user;" + userAffiliation + ";" + userName);
+                bw.newLine();
+            }
+            for (String[] peer : peers) {
+                bw.write("peer;" + peer[0] + ";" + peer[1]);
+                bw.newLine();
+            }
+            for (String[] orderer : orderers) {
+                bw.write("orderer;" + orderer[0] + ";" + orderer[1]);
+                bw.newLine();
+            }
+        }
+        Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Record the peers and orderers of an initialized channel
+     *
+     * @param channel Initialized channel
+     */
+    public synchronized void setTopology(Channel channel) {
+        peers.clear();
+        for (Peer peer : channel.getPeers()) {
+            peers.add(new String[]{peer.getName(), peer.getUrl()});
+        }
+        orderers.clear();
+        for (Orderer orderer : channel.getOrderers()) {
+            orderers.add(new String[]{orderer.getName(), orderer.getUrl()});
+        }
+    }
+
+    /**
+     * Record the last enrolled user
+     *
+     * @param affiliation Affiliation of the user
+     * @param name Name of the user
+     */
+    public synchronized void setUser(String affiliation, String name) {
+        userAffiliation = affiliation;
+        userName = name;
+    }
+
+    /**
+     * Get affiliation of the last enrolled user
+     *
+     * @return Affiliation, or null if no user has enrolled
+     */
+    public synchronized String getUserAffiliation() {
+        return userAffiliation;
+    }
+
+    /**
+     * Get name of the last enrolled user
+     *
+     * @return User name, or null if no user has enrolled
+     */
+    public synchronized String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Get peers of the channel in the last run
+     *
+     * @return Name and url of each peer
+     */
+    public synchronized List<String[]> getPeers() {
+        return new ArrayList<>(peers);
+    }
+
+    /**
+     * Get orderers of the channel in the last run
+     *
+     * @return Name and url of each orderer
+     */
+    public synchronized List<String[]> getOrderers() {
+        return new ArrayList<>(orderers);
+    }
+}
@@ -0,0 +1,38 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.io.Serializable;
+import java.security.PrivateKey;
+import org.hyperledger.fabric.sdk.Enrollment;
+
+/**
+ * Enrollment read from the credential store
+ *
+ * @author kehm
+ */
+public class StoredEnrollment implements Enrollment, Serializable {
+
+    private final PrivateKey key;
+    private final String cert; // PEM encoded certificate
+
+    /**
+     * Constructor for StoredEnrollment object
+     *
+     * @param key Private key
+     * @param cert PEM encoded certificate
+     */
+    public StoredEnrollment(PrivateKey key, String cert) {
+        this.key = key;
+        this.cert = cert;
+    }
+
+    @Override
+    public PrivateKey getKey() {
+        return key;
+    }
+
+    @Override
+    public String getCert() {
+        return cert;
+    }
+}
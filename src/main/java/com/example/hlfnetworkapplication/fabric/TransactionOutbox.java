@@ -0,0 +1,558 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.protos.peer.FabricTransaction.TxValidationCode;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.TransactionInfo;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+
+/**
+ * Write-ahead outbox for transactions of a session. A transaction is appended
+ * to a memory-mapped journal and forced to disk before it is acknowledged,
+ * and is then submitted in the background. The journal records when a
+ * transaction is sent to the orderer and when it is committed or has failed,
+ * so that transactions still pending when the application stops are
+ * submitted again the next time the user logs in.
+ *
+ * Each journal record is written as its length, a CRC32 checksum and the
+ * body. The length is written last, so a record torn by a crash is either
+ * not visible or fails its checksum, and ends the journal on recovery.
+ *
+ * A transaction that was sent to the orderer is never endorsed again with a
+ * new transaction ID while its last transaction ID may still commit. After an
+ * orderer or commit timeout failure, the transaction is looked up on the
+ * ledger by its transaction ID, and if it is not found, the same endorsed
+ * transaction is sent again, which Fabric commits at most once. Transactions
+ * recovered from the journal no longer have their endorsement, and are only
+ * submitted again once their last transaction ID is committed as invalid, or
+ * is still not on the ledger after waiting for it for the commit timeout.
+ * Entries are identified by a reference, which is stored with the entry in
+ * the journal. Each request of the user gets a new reference, and a reference
+ * is only submitted again for the same request, so submitting a reference
+ * that is already pending returns the pending entry.
+ *
+ * The journal is compacted by moving a new journal over the old one while the
+ * old one may still be mapped, which requires POSIX rename semantics. The
+ * outbox is not supported on Windows, where a mapped file cannot be replaced.
+ *
+ * @author kehm
+ */
+public class TransactionOutbox {
+
+    private static final Logger LOG = Logger.getLogger(TransactionOutbox.class);
+
+    private static final byte ENTRY = 1; // transaction appended
+    private static final byte SUBMITTED = 2; // transaction sent to the orderer with a transaction ID
+    private static final byte DONE = 3; // transaction committed or failed permanently
+    private static final int HEADER = 8; // length and checksum of a record
+
+    private final ClientSession session;
+    private final Path path;
+    private final int capacity; // size of the journal in bytes
+    private final long retryDelay; // delay before resubmitting a failed transaction in milliseconds
+    private final int maxAttempts; // submissions before a transaction is given up
+    private final Map<String, Entry> pending = new LinkedHashMap<>(); // pending entries by reference in journal order, guarded by this
+    private final ScheduledExecutorService drainer = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread thread = new Thread(r, "outbox-drainer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private FileChannel file; // guarded by this
+    private MappedByteBuffer journal; // guarded by this
+    private int position; // end of the last record, guarded by this
+
+    /**
+     * Constructor for TransactionOutbox object. Opens the journal and
+     * recovers its pending entries, which are submitted when the outbox is
+     * started.
+     *
+     * @param session Session to submit transactions with
+     * @param path Path of the journal file
+     * @param capacity Size of the journal in bytes
+     * @param retryDelay Delay before resubmitting a failed transaction in
+     * milliseconds
+     * @param maxAttempts Submissions before a transaction is given up
+     * @throws IOException if the journal cannot be opened
+     */
+    public TransactionOutbox(ClientSession session, Path path, int capacity, long retryDelay, int maxAttempts) throws IOException {
+        this.session = session;
+        this.path = path.toAbsolutePath();
+        this.capacity = capacity;
+        this.retryDelay = retryDelay;
+        this.maxAttempts = maxAttempts;
+        Files.createDirectories(this.path.getParent());
+        synchronized (this) {
+            map(this.path);
+            recover();
+            // rewrite the journal without completed entries and any torn record at its end
+            compact();
+        }
+        LOG.info("Recovered " + pending.size() + " pending transactions from outbox '" + this.path + "'");
+    }
+
+    /**
+     * Submit the pending entries recovered from the journal
+     */
+    public void start() {
+        List<Entry> recovered;
+        synchronized (this) {
+            recovered = new ArrayList<>(pending.values());
+        }
+        for (Entry entry : recovered) {
+            if (entry.transactionId == null) {
+                drainer.execute(() -> dispatch(entry));
+            } else {
+                drainer.execute(() -> reconcile(entry));
+            }
+        }
+    }
+
+    /**
+     * Append a transaction to the outbox with a new reference
+     *
+     * @param chaincodeName Name of chaincode
+     * @param function Chaincode function to invoke
+     * @param args Proposal arguments
+     * @return Future completed with the committed transaction
+     * @throws IOException if the transaction cannot be written to the journal
+     */
+    public CompletableFuture<TransactionResult> submit(String chaincodeName, String function, String[] args) throws IOException {
+        return submit(UUID.randomUUID().toString(), chaincodeName, function, args);
+    }
+
+    /**
+     * Append a transaction to the outbox. The transaction is on disk when
+     * this method returns, and is submitted in the background.
+     *
+     * @param reference Reference of the request, new for each request of the
+     * user and the same when the request is submitted again. A reference
+     * that is already pending is not appended again.
+     * @param chaincodeName Name of chaincode
+     * @param function Chaincode function to invoke
+     * @param args Proposal arguments
+     * @return Future completed with the committed transaction
+     * @throws IOException if the transaction cannot be written to the journal
+     */
+    public CompletableFuture<TransactionResult> submit(String reference, String chaincodeName, String function, String[] args) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            Entry existing = pending.get(reference);
+            if (existing != null) {
+                return existing.future;
+            }
+            entry = new Entry(reference, chaincodeName, function, args);
+            append(encodeEntry(entry));
+            pending.put(reference, entry);
+        }
+        drainer.execute(() -> dispatch(entry));
+        return entry.future;
+    }
+
+    /**
+     * Get number of transactions not yet committed
+     *
+     * @return Pending transactions
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Get number of journal bytes in use
+     *
+     * @return Used bytes
+     */
+    public synchronized int getUsed() {
+        return position;
+    }
+
+    /**
+     * Stop submitting transactions and close the journal. Pending
+     * transactions stay in the journal.
+     */
+    public void close() {
+        drainer.shutdownNow();
+        synchronized (this) {
+            try {
+                file.close();
+            } catch (IOException ex) {
+                LOG.error("Could not close outbox '" + path + "'", ex);
+            }
+        }
+    }
+
+    /**
+     * Endorse and submit an entry with a new transaction ID, recording the ID
+     * before it is ordered. Only called when no earlier transaction ID of the
+     * entry can still commit. Runs on the drainer thread.
+     */
+    private void dispatch(Entry entry) {
+        entry.attempts++;
+        entry.responses = null;
+        entry.waited = false;
+        CompletableFuture<TransactionResult> submitted;
+        try {
+            if (ClientSession.isRecordWrite(entry.chaincodeName, entry.function)) {
+                submitted = session.submitWrite(entry.chaincodeName, entry.function, entry.args, (responses) -> submitted(entry, responses));
+            } else {
+                submitted = session.submitAsync(entry.chaincodeName, entry.function, entry.args, (responses) -> submitted(entry, responses));
+            }
+        } catch (RuntimeException ex) {
+            submitted = new CompletableFuture<>();
+            submitted.completeExceptionally(ex);
+        }
+        submitted.whenCompleteAsync((result, ex) -> completed(entry, result, ex), drainer);
+    }
+
+    /**
+     * Send the endorsed transaction of an entry to the orderer again, with
+     * the same transaction ID, so that it is committed at most once. Runs on
+     * the drainer thread.
+     */
+    private void resend(Entry entry) {
+        entry.attempts++;
+        CompletableFuture<TransactionResult> submitted;
+        try {
+            submitted = session.resend(entry.responses);
+        } catch (RuntimeException ex) {
+            submitted = new CompletableFuture<>();
+            submitted.completeExceptionally(ex);
+        }
+        submitted.whenCompleteAsync((result, ex) -> completed(entry, result, ex), drainer);
+    }
+
+    /**
+     * Handle the outcome of a submission. Runs on the drainer thread.
+     */
+    private void completed(Entry entry, TransactionResult result, Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        if (cause == null) {
+            done(entry, true);
+            entry.future.complete(result);
+        } else if (cause instanceof ValidationException && ((ValidationException) cause).getValidationCode() != TxValidationCode.DUPLICATE_TXID_VALUE) {
+            // this transaction ID is committed as invalid and can no longer commit, endorse it again
+            retry(entry, cause);
+        } else if (entry.transactionId == null) {
+            // not endorsed, nothing was sent to the orderer
+            retry(entry, cause);
+        } else {
+            // sent to the orderer, the transaction may be committed or still commit
+            LOG.info("Transaction '" + entry.transactionId + "' of '" + entry.reference + "' failed (" + cause.getMessage() + "). Reconciling in " + retryDelay + " ms");
+            drainer.schedule(() -> reconcile(entry), retryDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Find out whether the last transaction ID of an entry was committed
+     * before the entry is submitted again. A transaction that is not on the
+     * ledger is sent again with the same transaction ID if its endorsement is
+     * still held. A transaction recovered from the journal is not, and is
+     * only waited for, since it may still be ordered. Runs on the drainer
+     * thread.
+     */
+    private void reconcile(Entry entry) {
+        // register first, the transaction may be committed while the ledger is queried
+        CommitMultiplexer commits = session.getHandler().getCommitMultiplexer();
+        String transactionId = entry.transactionId;
+        CompletableFuture<BlockEvent.TransactionEvent> committed = commits.register(transactionId);
+        TransactionInfo info;
+        try {
+            info = session.getHandler().getChannel().queryTransactionByID(transactionId, session.getClientUser());
+        } catch (ProposalException | InvalidArgumentException ex) {
+            if (entry.responses != null && entry.attempts < maxAttempts) {
+                commits.cancel(transactionId);
+                LOG.info("Transaction '" + transactionId + "' not found on the ledger. Sending it again");
+                resend(entry);
+                return;
+            }
+            if (entry.responses == null && entry.waited) {
+                // the envelope was only held by the process that crashed, and was not ordered within the commit timeout
+                commits.cancel(transactionId);
+                LOG.info("Recovered transaction '" + transactionId + "' not committed within the commit timeout. Submitting '" + entry.reference + "' again");
+                entry.transactionId = null;
+                dispatch(entry);
+                return;
+            }
+            LOG.info("Transaction '" + transactionId + "' not found on the ledger. Waiting for commit");
+            committed.whenCompleteAsync((event, error) -> {
+                if (error == null && event.isValid()) {
+                    done(entry, true);
+                    entry.future.complete(null);
+                } else if (error == null) {
+                    retry(entry, new ValidationException(transactionId, event.getValidationCode()));
+                } else {
+                    inDoubt(entry);
+                }
+            }, drainer);
+            return;
+        }
+        commits.cancel(transactionId);
+        if (info.getValidationCode() == TxValidationCode.VALID) {
+            LOG.info("Transaction '" + transactionId + "' of '" + entry.reference + "' is committed");
+            done(entry, true);
+            entry.future.complete(null);
+        } else {
+            retry(entry, new ValidationException(transactionId, (byte) info.getValidationCode().getNumber()));
+        }
+    }
+
+    /**
+     * Submit an entry with a new transaction ID after the retry delay, or
+     * give it up after the last attempt. The entry must not have a
+     * transaction ID that can still commit.
+     */
+    private void retry(Entry entry, Throwable cause) {
+        if (entry.attempts >= maxAttempts) {
+            LOG.error("Transaction '" + entry.reference + "' for chaincode '" + entry.chaincodeName + "' failed after " + entry.attempts + " attempts", cause);
+            done(entry, false);
+            entry.future.completeExceptionally(cause);
+        } else {
+            LOG.info("Transaction '" + entry.reference + "' failed (" + cause.getMessage() + "). Resubmitting in " + retryDelay + " ms");
+            drainer.schedule(() -> dispatch(entry), retryDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Keep an entry whose last transaction ID is neither on the ledger nor
+     * committed within the commit timeout. The transaction may still be
+     * ordered, so the entry is not given up. It stays in the journal and is
+     * reconciled again after the retry delay, and on the next start. A
+     * recovered entry is submitted again if it is still not on the ledger
+     * then, since its envelope was lost with the process that sent it.
+     */
+    private void inDoubt(Entry entry) {
+        entry.attempts++;
+        entry.waited = true;
+        if (entry.attempts >= maxAttempts && !entry.future.isDone()) {
+            LOG.error("Transaction '" + entry.transactionId + "' of '" + entry.reference + "' is still not committed. Keeping it in the outbox");
+            entry.future.completeExceptionally(new TimeoutException("Outcome of transaction '" + entry.transactionId + "' is unknown. It is kept in the outbox"));
+        }
+        drainer.schedule(() -> reconcile(entry), retryDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record the transaction ID of an entry before it is sent to the orderer,
+     * and keep its proposal responses so that it can be sent again with the
+     * same ID. Fails the submission if the ID cannot be written, since the
+     * entry could otherwise be committed twice after a crash.
+     */
+    private void submitted(Entry entry, Collection<ProposalResponse> responses) {
+        String transactionId = responses.iterator().next().getTransactionID();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream body = new DataOutputStream(bytes);
+            body.writeByte(SUBMITTED);
+            body.writeUTF(entry.reference);
+            body.writeUTF(transactionId);
+            synchronized (this) {
+                append(bytes.toByteArray());
+                entry.transactionId = transactionId;
+                entry.responses = responses;
+            }
+        } catch (IOException ex) {
+            throw new CompletionException(ex);
+        }
+    }
+
+    /**
+     * Record that an entry is committed or has failed permanently
+     */
+    private void done(Entry entry, boolean committed) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream body = new DataOutputStream(bytes);
+            body.writeByte(DONE);
+            body.writeUTF(entry.reference);
+            body.writeBoolean(committed);
+            synchronized (this) {
+                append(bytes.toByteArray());
+                pending.remove(entry.reference);
+                // nothing to keep, compacting is a cheap truncation
+                if (pending.isEmpty() && position > capacity / 4) {
+                    compact();
+                }
+            }
+        } catch (IOException ex) {
+            // the entry stays pending in the journal and is reconciled by its transaction ID on recovery
+            LOG.error("Could not record completion of transaction '" + entry.reference + "'", ex);
+        }
+    }
+
+    /**
+     * Append a record and force it to disk. The journal is compacted if the
+     * record does not fit.
+     */
+    private void append(byte[] body) throws IOException {
+        if (position + HEADER + body.length > capacity) {
+            compact();
+            if (position + HEADER + body.length > capacity) {
+                throw new IOException("Outbox '" + path + "' is full");
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        journal.position(position + HEADER);
+        journal.put(body);
+        journal.putInt(position + 4, (int) crc.getValue());
+        // length last, a record without its length is not read on recovery
+        journal.putInt(position, body.length);
+        journal.force();
+        position += HEADER + body.length;
+    }
+
+    /**
+     * Read the journal and rebuild the pending entries
+     */
+    private void recover() throws IOException {
+        position = 0;
+        while (position + HEADER <= capacity) {
+            int length = journal.getInt(position);
+            if (length <= 0 || position + HEADER + length > capacity) {
+                break;
+            }
+            byte[] body = new byte[length];
+            journal.position(position + HEADER);
+            journal.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != journal.getInt(position + 4)) {
+                LOG.error("Torn record at offset " + position + " in outbox '" + path + "'. Ignoring the rest of the journal");
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            byte type = in.readByte();
+            String reference = in.readUTF();
+            if (type == ENTRY) {
+                String chaincodeName = in.readUTF();
+                String function = in.readUTF();
+                String[] args = new String[in.readInt()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = readString(in);
+                }
+                pending.put(reference, new Entry(reference, chaincodeName, function, args));
+            } else if (type == SUBMITTED) {
+                Entry entry = pending.get(reference);
+                if (entry != null) {
+                    entry.transactionId = in.readUTF();
+                }
+            } else if (type == DONE) {
+                pending.remove(reference);
+            }
+            position += HEADER + length;
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the pending entries. The new journal is
+     * written to a temporary file and moved over the old one, so a crash
+     * during compaction leaves one of the two intact.
+     */
+    private void compact() throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        if (file != null) {
+            file.close();
+        }
+        map(temp);
+        position = 0;
+        for (Entry entry : pending.values()) {
+            append(encodeEntry(entry));
+            if (entry.transactionId != null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream body = new DataOutputStream(bytes);
+                body.writeByte(SUBMITTED);
+                body.writeUTF(entry.reference);
+                body.writeUTF(entry.transactionId);
+                append(bytes.toByteArray());
+            }
+        }
+        file.close();
+        journal = null;
+        // the old journal may stay mapped until it is collected, which only POSIX file systems allow to replace
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map(path);
+    }
+
+    /**
+     * Open and map a journal file, creating it at full size if it does not
+     * exist
+     */
+    private void map(Path journalPath) throws IOException {
+        file = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal = file.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private static byte[] encodeEntry(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(ENTRY);
+        body.writeUTF(entry.reference);
+        body.writeUTF(entry.chaincodeName);
+        body.writeUTF(entry.function);
+        body.writeInt(entry.args.length);
+        for (String arg : entry.args) {
+            // arguments are free text and may exceed the 64 kB limit of writeUTF
+            byte[] value = arg.getBytes(StandardCharsets.UTF_8);
+            body.writeInt(value.length);
+            body.write(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] value = new byte[in.readInt()];
+        in.readFully(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Transaction in the outbox
+     */
+    private static class Entry {
+
+        private final String reference;
+        private final String chaincodeName;
+        private final String function;
+        private final String[] args;
+        private final CompletableFuture<TransactionResult> future = new CompletableFuture<>(); // completed with null for recovered entries
+        private volatile String transactionId; // last transaction ID sent to the orderer
+        private volatile Collection<ProposalResponse> responses; // endorsement of the last transaction ID, null if recovered
+        private int attempts; // accessed on the drainer thread
+        private boolean waited; // waited a commit timeout for the last transaction ID, accessed on the drainer thread
+
+        private Entry(String reference, String chaincodeName, String function, String[] args) {
+            this.reference = reference;
+            this.chaincodeName = chaincodeName;
+            this.function = function;
+            this.args = args;
+        }
+    }
+}
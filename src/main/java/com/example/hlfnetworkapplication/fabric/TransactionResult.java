@@ -0,0 +1,73 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.Collection;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+
+/**
+ * Result of a transaction that has been endorsed, ordered and committed
+ *
+ * @author kehm
+ */
+public class TransactionResult {
+
+    private final Collection<ProposalResponse> proposalResponses; // endorsed proposal responses
+    private final BlockEvent.TransactionEvent transactionEvent; // commit event for the transaction
+
+    /**
+     * Constructor for TransactionResult object
+     *
+     * @param proposalResponses Endorsed proposal responses
+     * @param transactionEvent Commit event for the transaction
+     */
+    public TransactionResult(Collection<ProposalResponse> proposalResponses, BlockEvent.TransactionEvent transactionEvent) {
+        this.proposalResponses = proposalResponses;
+        this.transactionEvent = transactionEvent;
+    }
+
+    /**
+     * Get endorsed proposal responses
+     *
+     * @return Proposal responses
+     */
+    public Collection<ProposalResponse> getProposalResponses() {
+        return proposalResponses;
+    }
+
+    /**
+     * Get commit event for the transaction
+     *
+     * @return Transaction event
+     */
+    public BlockEvent.TransactionEvent getTransactionEvent() {
+        return transactionEvent;
+    }
+
+    /**
+     * Get transaction ID
+     *
+     * @return Transaction ID
+     */
+    public String getTransactionID() {
+        return transactionEvent.getTransactionID();
+    }
+
+    /**
+     * Get number of the block the transaction was committed in
+     *
+     * @return Block number
+     */
+    public long getBlockNumber() {
+        return transactionEvent.getBlockEvent().getBlockNumber();
+    }
+
+    /**
+     * Get validation code of the transaction
+     *
+     * @return Validation code, 0 if valid
+     */
+    public byte getValidationCode() {
+        return transactionEvent.getValidationCode();
+    }
+}
@@ -0,0 +1,46 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import org.hyperledger.fabric.sdk.exception.TransactionException;
+
+/**
+ * Thrown when a transaction is committed with a validation code other than
+ * valid
+ *
+ * @author kehm
+ */
+public class ValidationException extends TransactionException {
+
+    private final String transactionId;
+    private final byte validationCode;
+
+    /**
+     * Constructor for ValidationException object
+     *
+     * @param transactionId Transaction ID
+     * @param validationCode Validation code of the transaction
+     */
+    public ValidationException(String transactionId, byte validationCode) {
+        super("Transaction '" + transactionId + "' failed with validation code " + validationCode);
+        this.transactionId = transactionId;
+        this.validationCode = validationCode;
+    }
+
+    /**
+     * Get transaction ID
+     *
+     * @return Transaction ID
+     */
+    public String getTransactionID() {
+        return transactionId;
+    }
+
+    /**
+     * Get validation code of the transaction
+     *
+     * @return Validation code
+     */
+    public byte getValidationCode() {
+        return validationCode;
+    }
+}
@@ -0,0 +1,137 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.fabric;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.apache.log4j.Logger;
+import org.hyperledger.fabric.protos.peer.FabricTransaction.TxValidationCode;
+import com.example.hlfnetworkapplication.metrics.ClientMetrics;
+
+/**
+ * Schedules writes keyed by the record they change. Writes to different
+ * records run in parallel. Writes to the same record run one at a time, each
+ * endorsed after the previous one has committed, so that they do not read a
+ * version of the record that a write still in flight is about to replace.
+ *
+ * Writes from other clients can still change the record between endorsement
+ * and commit. A write that fails validation with an MVCC or phantom read
+ * conflict is endorsed and submitted again after a jittered exponential
+ * backoff, up to a maximum number of retries.
+ *
+ * @author kehm
+ */
+public class WriteScheduler {
+
+    private static final Logger LOG = Logger.getLogger(WriteScheduler.class);
+
+    private final Map<String, CompletableFuture<TransactionResult>> tails = new ConcurrentHashMap<>(); // last scheduled write for each key
+    private final ClientMetrics metrics;
+    private final int maxRetries;
+    private final long backoff; // base backoff in milliseconds
+    private final long maxBackoff; // upper bound of backoff in milliseconds
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * Constructor for WriteScheduler object
+     *
+     * @param metrics Metrics to count retries in
+     * @param maxRetries Maximum number of resubmissions after a conflict
+     * @param backoff Base backoff in milliseconds, doubled for each retry
+     * @param maxBackoff Upper bound of backoff in milliseconds
+     */
+    public WriteScheduler(ClientMetrics metrics, int maxRetries, long backoff, long maxBackoff) {
+        this.metrics = metrics;
+        this.maxRetries = maxRetries;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Schedule a write after the writes already scheduled for its key
+     *
+     * @param key Key of the record changed by the write
+     * @param chaincodeName Name of chaincode
+     * @param function Chaincode function
+     * @param write Endorses and submits the write, called again for each
+     * retry
+     * @return Future completed with the committed transaction
+     */
+    public CompletableFuture<TransactionResult> schedule(String key, String chaincodeName, String function, Supplier<CompletableFuture<TransactionResult>> write) {
+        CompletableFuture<TransactionResult> result = new CompletableFuture<>();
+        CompletableFuture<TransactionResult> previous = tails.put(key, result);
+        result.whenComplete((r, ex) -> tails.remove(key, result));
+        if (previous == null) {
+            attempt(chaincodeName, function, write, 0, result);
+        } else {
+            previous.whenComplete((r, ex) -> attempt(chaincodeName, function, write, 0, result));
+        }
+        return result;
+    }
+
+    /**
+     * Get number of writes resubmitted after a conflict
+     *
+     * @return Retries
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Get number of keys with writes scheduled or in flight
+     *
+     * @return Active keys
+     */
+    public int getActiveKeys() {
+        return tails.size();
+    }
+
+    private void attempt(String chaincodeName, String function, Supplier<CompletableFuture<TransactionResult>> write, int attempt, CompletableFuture<TransactionResult> result) {
+        CompletableFuture<TransactionResult> submitted;
+        try {
+            submitted = write.get();
+        } catch (RuntimeException ex) {
+            result.completeExceptionally(ex);
+            return;
+        }
+        submitted.whenComplete((r, ex) -> {
+            if (ex == null) {
+                result.complete(r);
+                return;
+            }
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (attempt < maxRetries && isConflict(cause)) {
+                long delay = getBackoff(attempt);
+                retries.incrementAndGet();
+                metrics.count(chaincodeName, function, ClientMetrics.Outcome.RETRY);
+                LOG.info("Write conflict (" + cause.getMessage() + "). Resubmitting in " + delay + " ms");
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> attempt(chaincodeName, function, write, attempt + 1, result));
+            } else {
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    /**
+     * Get backoff before a retry. Half of the delay is fixed and half is
+     * random, so that conflicting clients spread their retries.
+     */
+    private long getBackoff(int attempt) {
+        long delay = Math.min(maxBackoff, backoff << Math.min(attempt, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static boolean isConflict(Throwable cause) {
+        if (!(cause instanceof ValidationException)) {
+            return false;
+        }
+        byte code = ((ValidationException) cause).getValidationCode();
+        return code == TxValidationCode.MVCC_READ_CONFLICT_VALUE || code == TxValidationCode.PHANTOM_READ_CONFLICT_VALUE;
+    }
+}
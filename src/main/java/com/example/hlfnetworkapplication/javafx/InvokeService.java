@@ -2,14 +2,17 @@
 package com.example.hlfnetworkapplication.javafx;
 
 import java.util.Collection;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import org.apache.log4j.Logger;
-import org.hyperledger.fabric.sdk.BlockEvent;
 import org.hyperledger.fabric.sdk.ProposalResponse;
-import com.example.hlfnetworkapplication.fabric.CommunicationHandler;
+import com.example.hlfnetworkapplication.fabric.ClientSession;
+import com.example.hlfnetworkapplication.fabric.TransactionResult;
+import com.example.hlfnetworkapplication.util.Strings;
 
 /**
  * Service class to invoke chaincode on the blockchain
@@ -20,14 +23,19 @@ public class InvokeService extends Service {
 
     private static final Logger LOG = Logger.getLogger(InvokeService.class);
 
+    private final ClientSession session; // session of the enrolled user
     private final String chaincode; // name of chaincode
     private final String function; // name of chaincode function
     private final String[] args; // arguments to supply chaincode
+    private final Consumer<Throwable> onOutboxFailure; // called if a transaction stored in the outbox fails
+    private final String reference = UUID.randomUUID().toString(); // outbox reference of this request, kept when the service is restarted
 
-    public InvokeService(String chaincode, String function, String[] args) {
+    public InvokeService(ClientSession session, String chaincode, String function, String[] args, Consumer<Throwable> onOutboxFailure) {
+        this.session = session;
         this.chaincode = chaincode;
         this.function = function;
         this.args = args;
+        this.onOutboxFailure = onOutboxFailure;
     }
 
     @Override
@@ -35,20 +43,26 @@ public class InvokeService extends Service {
         return new Task<Collection<ProposalResponse>>() {
             @Override
             protected Collection<ProposalResponse> call() throws Exception {
-                Collection<ProposalResponse> response = CommunicationHandler.transactionProposal(CommunicationHandler.getChannel(), chaincode, function, args);
-                CompletableFuture cf = CommunicationHandler.getChannel().sendTransaction(response);
-                if (cf == null) {
-                    LOG.error("Inconsistent RW sets from endorsing peers. Transaction not orderered");
-                    this.failed();
+                if (session.getOutbox() != null && chaincode.equals(Strings.RRC_CHAINCODE_NAME)) {
+                    // acknowledge once the transaction is in the outbox, it is committed in the background
+                    // a retry of this request does not add a second entry, a new request does
+                    CompletableFuture<TransactionResult> future = session.getOutbox().submit(function.equals(Strings.RRC_CHAINCODE_FUNCTION_CREATE) ? args[0] : reference, chaincode, function, args);
+                    future.exceptionally((ex) -> {
+                        LOG.error("Transaction from outbox failed", ex);
+                        onOutboxFailure.accept(ex);
+                        return null;
+                    });
+                    LOG.info("Transaction is stored in the outbox");
+                    return null;
                 }
-                BlockEvent.TransactionEvent blockEvent = (BlockEvent.TransactionEvent) cf.get(60, TimeUnit.SECONDS);
-                if (blockEvent.isValid()) {
+                try {
+                    TransactionResult result = (ClientSession.isRecordWrite(chaincode, function) ? session.submitWrite(chaincode, function, args) : session.submitAsync(chaincode, function, args)).get();
                     LOG.info("Transaction is successful");
-                } else {
-                    LOG.error("Transaction failed");
-                    this.failed();
+                    return result.getProposalResponses();
+                } catch (ExecutionException ex) {
+                    LOG.error("Transaction failed", ex.getCause());
+                    throw ex;
                 }
-                return response;
             }
         };
     }
@@ -1,11 +1,8 @@
 /* SPDX-License-Identifier: Apache-2.0 */
 package com.example.hlfnetworkapplication.javafx;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -21,21 +18,27 @@ import javafx.scene.control.ButtonBar.ButtonData;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
+import javafx.scene.control.MenuItem;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ToggleGroup;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.util.Pair;
 import org.apache.log4j.Logger;
-import org.hyperledger.fabric.sdk.ProposalResponse;
-import org.hyperledger.fabric.sdk.exception.CryptoException;
-import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import com.example.hlfnetworkapplication.fabric.ClientSession;
+import com.example.hlfnetworkapplication.fabric.ClientUser;
 import com.example.hlfnetworkapplication.fabric.CommunicationHandler;
-import com.example.hlfnetworkapplication.util.JSONParser;
+import com.example.hlfnetworkapplication.util.Affiliation;
+import com.example.hlfnetworkapplication.util.AffiliationRegistry;
 import com.example.hlfnetworkapplication.util.Strings;
 
 public class MainController implements Initializable {
@@ -61,7 +64,7 @@ public class MainController implements Initializable {
     @FXML
     private TextArea tab2Area;
     @FXML
-    private TextArea tab3Area;
+    private TreeView<String> tab3Tree;
     @FXML
     private TextArea tab4Area;
     @FXML
@@ -107,6 +110,10 @@ public class MainController implements Initializable {
     private ToggleGroup entityGroup;
     private ToggleGroup eventGroup;
 
+    private final CommunicationHandler handler = new CommunicationHandler();
+    private ClientSession session; // session of the enrolled user
+    private boolean channelReady; // channel initialized and its length shown
+
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         userLabel.setText("You are not enrolled!");
@@ -114,12 +121,13 @@ public class MainController implements Initializable {
         initTab2();
         initTab3();
         initTab4();
+        // prepare the client and channel while the user enrolls
+        handler.warmUp();
         try {
-            CommunicationHandler.prepareClient();
             openEnrollDialog();
-        } catch (IOException | ClassNotFoundException | IllegalAccessException | InstantiationException | NoSuchMethodException | InvocationTargetException | CryptoException | InvalidArgumentException ex) {
+        } catch (IOException ex) {
             LOG.error(ex);
-            output("ERROR: Could not initialize Fabric client");
+            output("ERROR: Could not read affiliations");
         }
     }
 
@@ -140,7 +148,7 @@ public class MainController implements Initializable {
             tab1Progress.setVisible(true);
             output(Strings.STATUS_TRANSACTION_ASSEMBLE);
             String ref = UUID.randomUUID().toString();
-            final InvokeService service = new InvokeService(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_CREATE, new String[]{ref, tab1Arg1.getText(), tab1Arg3.getText()});
+            final InvokeService service = new InvokeService(session, Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_CREATE, new String[]{ref, tab1Arg1.getText(), tab1Arg3.getText()}, (ex) -> Platform.runLater(() -> output("ERROR: Record " + ref + " could not be registered: " + ex.getMessage())));
             service.setOnSucceeded(e -> {
                 // if service succeeds, hide progress indicator and indicate transaction success
                 tab1Progress.setVisible(false);
@@ -166,7 +174,8 @@ public class MainController implements Initializable {
         tab2Area.clear();
         tab2Progress.setVisible(true);
         output(Strings.STATUS_TRANSACTION_ASSEMBLE);
-        final InvokeService service = new InvokeService(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_UPDATE, new String[]{tab2Arg1.getText(), tab2Arg2.getText(), permissionsGroup.getSelectedToggle().getUserData().toString(), entityGroup.getSelectedToggle().getUserData().toString(), eventGroup.getSelectedToggle().getUserData().toString()});
+        final String ref = tab2Arg1.getText();
+        final InvokeService service = new InvokeService(session, Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_UPDATE, new String[]{ref, tab2Arg2.getText(), permissionsGroup.getSelectedToggle().getUserData().toString(), entityGroup.getSelectedToggle().getUserData().toString(), eventGroup.getSelectedToggle().getUserData().toString()}, (ex) -> Platform.runLater(() -> output("ERROR: ACL of record " + ref + " could not be updated: " + ex.getMessage())));
         service.setOnSucceeded(e -> {
             // if service succeeds, hide progress indicator and indicate transaction success
             tab2Progress.setVisible(false);
@@ -186,24 +195,22 @@ public class MainController implements Initializable {
     @FXML
     private void read(ActionEvent event) {
         readBtn.setDisable(true);
-        tab3Area.clear();
+        tab3Tree.setRoot(null);
         tab3Progress.setVisible(true);
         output(Strings.STATUS_TRANSACTION_ASSEMBLE);
-        String override = "0";
-        if (overrideBox.isSelected()) {
-            override = "1"; // set override flag true
-        }
-        final InvokeService service = new InvokeService(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_QUERY, new String[]{tab3Arg1.getText(), override}
-        );
+        final String ref = tab3Arg1.getText();
+        // the payload is shown before the read is logged on the ledger, report if logging fails
+        final ReadService service = new ReadService(session, ref, overrideBox.isSelected(), (ex) -> Platform.runLater(() -> output("ERROR: Read of record " + ref + " could not be logged")));
         service.setOnSucceeded(e -> {
             // if service succeeds, hide progress indicator and indicate query success
             tab3Progress.setVisible(false);
-            Collection<ProposalResponse> response = (Collection<ProposalResponse>) service.getValue();
-            try {
-                tab3Area.appendText("Query returned: \n" + JSONParser.getPrettyPrint(new String[]{new String(response.iterator().next().getChaincodeActionResponsePayload())}));
+            RecordTreeItem root = service.getValue();
+            if (root != null) {
+                // items are created as the record is expanded, the access log is added one page at a time
+                root.setExpanded(true);
+                tab3Tree.setRoot(root);
                 output("Query is successful");
-            } catch (InvalidArgumentException ex) {
-                LOG.info(ex);
+            } else {
                 output("Query returned no payload");
             }
             readBtn.setDisable(false);
@@ -223,7 +230,8 @@ public class MainController implements Initializable {
         tab4Area.clear();
         tab4Progress.setVisible(true);
         output(Strings.STATUS_TRANSACTION_ASSEMBLE);
-        final InvokeService service = new InvokeService(Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_LOG, new String[]{tab4Arg1.getText(), Strings.EVENT_WRITE, tab4Arg2.getText()});
+        final String ref = tab4Arg1.getText();
+        final InvokeService service = new InvokeService(session, Strings.RRC_CHAINCODE_NAME, Strings.RRC_CHAINCODE_FUNCTION_LOG, new String[]{ref, Strings.EVENT_WRITE, tab4Arg2.getText()}, (ex) -> Platform.runLater(() -> output("ERROR: Record " + ref + " could not be updated: " + ex.getMessage())));
         service.setOnSucceeded(e -> {
             // if service succeeds, hide progress indicator and indicate transaction success
             tab4Progress.setVisible(false);
@@ -264,12 +272,9 @@ public class MainController implements Initializable {
         ComboBox affiliations = new ComboBox();
         ObservableList<String> options = FXCollections.observableArrayList();
         // fill list of affiliations with affiliations listed in config file
-        FileReader fr = new FileReader(MainController.class.getClassLoader().getResource(Strings.AFFILIATIONS_FILENAME).getPath());
-        try (BufferedReader br = new BufferedReader(fr)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                options.add(line.split(";")[0]);
-            }
+        AffiliationRegistry registry = AffiliationRegistry.getInstance();
+        for (Affiliation affiliation : registry.getAll()) {
+            options.add(affiliation.getName());
         }
         affiliations.getItems().addAll(options);
         affiliations.setValue(options.get(0));
@@ -289,34 +294,31 @@ public class MainController implements Initializable {
         result.ifPresent(r -> {
             try {
                 // read configuration details for the selected affiliation in config file and set user context
-                FileReader fr2 = new FileReader(MainController.class.getClassLoader().getResource(Strings.AFFILIATIONS_FILENAME).getPath());
-                try (BufferedReader br = new BufferedReader(fr2)) {
-                    boolean configLocated = false;
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        String[] args = line.split(";");
-                        if (args[0].equalsIgnoreCase(r.getValue())) {
-                            CommunicationHandler.setContext(r.getKey(), args[2], args[3], args[4], args[5], args[0], args[1]);
-                            // set user label and enable GUI elements that require user context to be set
-                            setUserLabel(r.getKey(), args[0]);
-                            registerBtn.setDisable(false);
-                            readBtn.setDisable(false);
-                            writeBtn.setDisable(false);
-                            editBtn.setDisable(false);
-                            if (CommunicationHandler.getChannel() == null) {
-                                // initialize channel object and print length
-                                Long length = CommunicationHandler.initChannel();
-                                output("Channel '" + CommunicationHandler.getChannel().getName() + "'. Length: " + length);
-                            }
-                            configLocated = true;
-                            break;
-                        }
+                Affiliation affiliation = registry.get(r.getValue());
+                if (affiliation != null) {
+                    ClientUser clientUser = handler.enroll(r.getKey(), affiliation.getCaName(), affiliation.getCaUrl(), affiliation.getRegistrarName(), affiliation.getRegistrarPass(), affiliation.getName(), affiliation.getMspId());
+                    if (session != null) {
+                        // the channel is initialized again if it is bound to another user
+                        session.close();
+                        session = null;
                     }
-                    if (!configLocated) {
-                        String message = "ERROR: Could not find configuration for the selected affiliation";
-                        LOG.error(message);
-                        output(message);
+                    // wait for the warm-up to initialize the channel object and print length
+                    long length = handler.awaitChannel(clientUser);
+                    if (!channelReady) {
+                        output("Channel '" + handler.getChannel().getName() + "'. Length: " + length);
+                        channelReady = true;
                     }
+                    session = handler.newSession(clientUser);
+                    // set user label and enable GUI elements that require user context to be set
+                    setUserLabel(r.getKey(), affiliation.getName());
+                    registerBtn.setDisable(false);
+                    readBtn.setDisable(false);
+                    writeBtn.setDisable(false);
+                    editBtn.setDisable(false);
+                } else {
+                    String message = "ERROR: Could not find configuration for the selected affiliation";
+                    LOG.error(message);
+                    output(message);
                 }
             } catch (Exception ex) {
                 LOG.error(ex);
@@ -394,6 +396,17 @@ public class MainController implements Initializable {
         tab3Arg1.setPromptText("RRC reference");
         tab3Arg2.setPromptText("");
         tab3Arg2.setDisable(true);
+        // copy the selected value of the record
+        MenuItem copy = new MenuItem("Copy");
+        copy.setOnAction((e) -> {
+            TreeItem<String> item = tab3Tree.getSelectionModel().getSelectedItem();
+            if (item != null && item.getValue() != null) {
+                ClipboardContent content = new ClipboardContent();
+                content.putString(item.getValue());
+                Clipboard.getSystemClipboard().setContent(content);
+            }
+        });
+        tab3Tree.setContextMenu(new ContextMenu(copy));
     }
 
     /**
@@ -0,0 +1,52 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.javafx;
+
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
+import org.apache.log4j.Logger;
+import com.example.hlfnetworkapplication.fabric.ClientSession;
+import com.example.hlfnetworkapplication.util.Strings;
+
+/**
+ * Service class to read a record from the blockchain. The payload is checked
+ * and the record item is labelled on the service thread, so that large
+ * records do not block the FX thread. The payload is not parsed into a tree,
+ * values are read from it as items are expanded.
+ *
+ * @author kehm
+ */
+public class ReadService extends Service<RecordTreeItem> {
+
+    private static final Logger LOG = Logger.getLogger(ReadService.class);
+
+    private final ClientSession session; // session of the enrolled user
+    private final String ref; // record reference
+    private final boolean override; // override record permissions
+    private final Consumer<Throwable> onAuditFailure; // called if the read could not be logged
+
+    public ReadService(ClientSession session, String ref, boolean override, Consumer<Throwable> onAuditFailure) {
+        this.session = session;
+        this.ref = ref;
+        this.override = override;
+        this.onAuditFailure = onAuditFailure;
+    }
+
+    @Override
+    protected Task<RecordTreeItem> createTask() {
+        return new Task<RecordTreeItem>() {
+            @Override
+            protected RecordTreeItem call() throws Exception {
+                try {
+                    String payload = session.readRecord(ref, override, onAuditFailure).get();
+                    LOG.info("Query is successful");
+                    return payload == null ? null : RecordTreeItem.create("Record " + ref, payload, Integer.valueOf(Strings.RECORD_VIEWER_PAGE_SIZE));
+                } catch (ExecutionException ex) {
+                    LOG.error("Query failed", ex.getCause());
+                    throw ex;
+                }
+            }
+        };
+    }
+}
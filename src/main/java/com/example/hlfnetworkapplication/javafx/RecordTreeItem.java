@@ -0,0 +1,307 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.javafx;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.scene.control.TreeItem;
+import org.apache.log4j.Logger;
+
+/**
+ * Tree item showing a value of a record. The record is not parsed into a
+ * tree. Each item holds the path of its value in the payload, and when it is
+ * first expanded, the payload is streamed to the value, skipping everything
+ * before it, and only the labels of its children are read. The elements of an
+ * array are added one page at a time, so a record with a long access log only
+ * creates items for the entries that are opened. The reader is kept at the
+ * end of the last page, so paging through an array reads the payload once,
+ * and the number of remaining elements is not counted. Children are read on
+ * a background thread and replace a placeholder item when ready. Log entries
+ * are summarized by time, event and client.
+ *
+ * @author kehm
+ */
+public class RecordTreeItem extends TreeItem<String> {
+
+    private static final Logger LOG = Logger.getLogger(RecordTreeItem.class);
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor((r) -> {
+        Thread thread = new Thread(r, "record-viewer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String payload; // JSON payload of the record
+    private final int[] path; // index of the value in each enclosing array or object
+    private final int pageSize; // array elements added at a time
+    private final boolean leaf;
+    private boolean loaded; // children requested
+    private JsonReader cursor; // reader before the next array element, only used on the loader thread
+    private int next; // index of the array element the cursor is at
+
+    private RecordTreeItem(String label, String payload, int[] path, int pageSize, boolean leaf) {
+        super(label);
+        this.payload = payload;
+        this.path = path;
+        this.pageSize = pageSize;
+        this.leaf = leaf;
+    }
+
+    /**
+     * Create the item of a record. The payload is read once to check that it
+     * is valid JSON and to label the record.
+     *
+     * @param name Name of the record
+     * @param payload JSON payload of the record
+     * @param pageSize Array elements added at a time
+     * @return Item of the record
+     * @throws IOException if the payload is not valid JSON
+     */
+    public static RecordTreeItem create(String name, String payload, int pageSize) throws IOException {
+        JsonReader reader = reader(payload);
+        RecordTreeItem item = read(reader, name, payload, new int[0], pageSize);
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new IOException("Unexpected token " + reader.peek() + " at " + reader.getPath());
+        }
+        return item;
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    @Override
+    public ObservableList<TreeItem<String>> getChildren() {
+        if (!loaded) {
+            loaded = true;
+            if (!leaf) {
+                TreeItem<String> placeholder = new TreeItem<>("Loading...");
+                super.getChildren().setAll(placeholder);
+                load(0, placeholder);
+            }
+        }
+        return super.getChildren();
+    }
+
+    /**
+     * Read a page of children on the loader thread and replace the placeholder
+     * item with them
+     */
+    private void load(int from, TreeItem<String> placeholder) {
+        Task<List<TreeItem<String>>> task = new Task<List<TreeItem<String>>>() {
+            @Override
+            protected List<TreeItem<String>> call() throws IOException {
+                return page(from);
+            }
+        };
+        task.setOnSucceeded((event) -> {
+            ObservableList<TreeItem<String>> siblings = super.getChildren();
+            int index = siblings.indexOf(placeholder);
+            if (index >= 0) {
+                siblings.remove(index);
+                siblings.addAll(index, task.getValue());
+            }
+        });
+        task.setOnFailed((event) -> {
+            // the payload was read when the record item was created
+            LOG.error("Could not read '" + getValue() + "' from record", task.getException());
+            placeholder.setValue("Could not read record");
+        });
+        LOADER.execute(task);
+    }
+
+    /**
+     * Create items for the members of an object, or for a page of array
+     * elements followed by an item loading the next page if there are more
+     * elements
+     */
+    private List<TreeItem<String>> page(int from) throws IOException {
+        List<TreeItem<String>> items = new ArrayList<>();
+        if (cursor == null || next != from) {
+            JsonReader reader = navigate();
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                for (int i = 0; reader.hasNext(); i++) {
+                    String name = reader.nextName();
+                    items.add(read(reader, name, payload, child(i), pageSize));
+                }
+                return items;
+            }
+            reader.beginArray();
+            for (next = 0; next < from && reader.hasNext(); next++) {
+                reader.skipValue();
+            }
+            cursor = reader;
+        }
+        for (; next < from + pageSize && cursor.hasNext(); next++) {
+            items.add(read(cursor, "[" + next + "]", payload, child(next), pageSize));
+        }
+        if (cursor.hasNext()) {
+            items.add(new MoreItem(next));
+        } else {
+            cursor = null;
+        }
+        return items;
+    }
+
+    /**
+     * Stream the payload to the value of this item, skipping the values
+     * before it
+     */
+    private JsonReader navigate() throws IOException {
+        JsonReader reader = reader(payload);
+        for (int index : path) {
+            // skip the values before the next value on the path
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+            } else {
+                reader.beginObject();
+            }
+            for (int i = 0; i < index; i++) {
+                if (reader.peek() == JsonToken.NAME) {
+                    reader.nextName();
+                }
+                reader.skipValue();
+            }
+            if (reader.peek() == JsonToken.NAME) {
+                reader.nextName();
+            }
+        }
+        return reader;
+    }
+
+    private int[] child(int index) {
+        int[] child = Arrays.copyOf(path, path.length + 1);
+        child[path.length] = index;
+        return child;
+    }
+
+    /**
+     * Create the item of the next value of the reader, reading only what is
+     * needed for its label and skipping the rest of the value
+     */
+    private static RecordTreeItem read(JsonReader reader, String name, String payload, int[] path, int pageSize) throws IOException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case BEGIN_ARRAY: {
+                reader.beginArray();
+                int size = 0;
+                for (; reader.hasNext(); size++) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+                return new RecordTreeItem(name + " [" + size + "]", payload, path, pageSize, size == 0);
+            }
+            case BEGIN_OBJECT: {
+                reader.beginObject();
+                int size = 0;
+                String timestamp = null;
+                String event = null;
+                String clientId = null;
+                String mspId = null;
+                for (; reader.hasNext(); size++) {
+                    String member = reader.nextName();
+                    if (member.equals("timestamp")) {
+                        timestamp = timestamp(reader);
+                    } else if (member.equals("event")) {
+                        event = primitive(reader);
+                    } else if (member.equals("clientId")) {
+                        clientId = primitive(reader);
+                    } else if (member.equals("mspId")) {
+                        mspId = primitive(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (timestamp != null && event != null) {
+                    // log entry
+                    return new RecordTreeItem(name + "  " + timestamp + "  " + event + "  " + value(clientId) + " (" + value(mspId) + ")", payload, path, pageSize, size == 0);
+                }
+                return new RecordTreeItem(name + " {" + size + "}", payload, path, pageSize, size == 0);
+            }
+            case NULL:
+                reader.nextNull();
+                return new RecordTreeItem(name + ": null", payload, path, pageSize, true);
+            case STRING:
+            case NUMBER:
+            case BOOLEAN:
+                return new RecordTreeItem(name + ": " + primitive(reader), payload, path, pageSize, true);
+            default:
+                throw new IOException("Unexpected token " + token + " at " + reader.getPath());
+        }
+    }
+
+    /**
+     * Read the next value if it is a string, number or boolean, or skip it
+     *
+     * @return Value, empty if null, null if an array or object
+     */
+    private static String primitive(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
+        }
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return "";
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private static String timestamp(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NUMBER) {
+            String timestamp = reader.nextString();
+            try {
+                return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(Long.parseLong(timestamp)));
+            } catch (NumberFormatException ex) {
+                return timestamp;
+            }
+        }
+        return primitive(reader);
+    }
+
+    private static String value(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static JsonReader reader(String payload) {
+        JsonReader reader = new JsonReader(new StringReader(payload));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    /**
+     * Item loading the next page of array elements when expanded
+     */
+    private class MoreItem extends TreeItem<String> {
+
+        private boolean loading;
+
+        private MoreItem(int from) {
+            super("Show more");
+            super.getChildren().add(new TreeItem<>()); // expandable
+            expandedProperty().addListener((observable, wasExpanded, expanded) -> {
+                if (expanded && !loading) {
+                    loading = true;
+                    setValue("Loading...");
+                    load(from, this);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+import com.example.hlfnetworkapplication.util.LatencyHistogram;
+
+/**
+ * Latency of each stage of a transaction and counts of transaction outcomes,
+ * tagged by chaincode and function, and the time taken to warm up and to
+ * commit the first transaction after start. Metrics can be registered as
+ * MBeans and written in the Prometheus text format.
+ *
+ * @author kehm
+ */
+public class ClientMetrics implements ClientMetricsMXBean {
+
+    private static final Logger LOG = Logger.getLogger(ClientMetrics.class);
+
+    private static final String DOMAIN = "com.example.hlfnetworkapplication";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Timed stages of a transaction
+     */
+    public enum Stage {
+        ENDORSER_QUERY, // lookup of the endorser organization selected by the incentive mechanism
+        DISCOVERY, // service discovery until the endorsement selector is called
+        ENDORSEMENT, // endorsement by the selected peers
+        CONSISTENCY_CHECK, // RW set consistency check of the proposal responses
+        ORDERING, // broadcast of the transaction to the orderer
+        COMMIT, // wait for the commit event after ordering
+        QUERY, // chaincode query
+        TOTAL // submission until the transaction is committed
+    }
+
+    /**
+     * Outcomes of a transaction. Success, failure, timeout and invalid are
+     * counted once for each submitted transaction, as is rejected.
+     * Inconsistent RW sets are also counted as failures, and retried writes
+     * also as invalid.
+     */
+    public enum Outcome {
+        SUCCESS,
+        FAILURE,
+        TIMEOUT, // no commit event within the commit timeout
+        INVALID, // committed with a validation code other than valid
+        INCONSISTENT, // proposal responses with inconsistent RW sets
+        RETRY, // write resubmitted after an MVCC or phantom read conflict
+        REJECTED // no slot in the write window within the queue timeout
+    }
+
+    private final Map<String, StageTimer> timers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> outcomes = new ConcurrentHashMap<>();
+    private volatile boolean registered; // register new timers as MBeans
+    private final AtomicLong firstTransaction = new AtomicLong(-1); // JVM uptime at the first committed transaction in milliseconds
+    private volatile long warmUp = -1; // duration of the startup warm-up in milliseconds
+
+    /**
+     * Record the duration of a stage
+     *
+     * @param chaincode Name of chaincode
+     * @param function Chaincode function
+     * @param stage Timed stage
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(String chaincode, String function, Stage stage, long nanos) {
+        getTimer(chaincode, function, stage).record(nanos);
+    }
+
+    /**
+     * Count an outcome
+     *
+     * @param chaincode Name of chaincode
+     * @param function Chaincode function
+     * @param outcome Outcome
+     */
+    public void count(String chaincode, String function, Outcome outcome) {
+        String key = chaincode + "/" + function + "/" + outcome.name().toLowerCase(Locale.ROOT);
+        AtomicLong counter = outcomes.get(key);
+        if (counter == null) {
+            counter = outcomes.computeIfAbsent(key, (k) -> new AtomicLong());
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * Record the first committed transaction since the JVM started. Later
+     * transactions are ignored.
+     */
+    public void recordFirstTransaction() {
+        if (firstTransaction.get() < 0) {
+            long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+            if (firstTransaction.compareAndSet(-1, uptime)) {
+                LOG.info("First transaction committed " + uptime + " ms after start");
+            }
+        }
+    }
+
+    /**
+     * Record the duration of the startup warm-up
+     *
+     * @param millis Duration in milliseconds
+     */
+    public void recordWarmUp(long millis) {
+        warmUp = millis;
+    }
+
+    /**
+     * Get timer for a stage, creating it on first use
+     *
+     * @param chaincode Name of chaincode
+     * @param function Chaincode function
+     * @param stage Timed stage
+     * @return Stage timer
+     */
+    public StageTimer getTimer(String chaincode, String function, Stage stage) {
+        String key = chaincode + "/" + function + "/" + stage.name();
+        StageTimer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, (k) -> {
+                StageTimer newTimer = new StageTimer(chaincode, function, stage);
+                if (registered) {
+                    register(newTimer);
+                }
+                return newTimer;
+            });
+        }
+        return timer;
+    }
+
+    /**
+     * Get number of transactions with an outcome
+     *
+     * @param chaincode Name of chaincode
+     * @param function Chaincode function
+     * @param outcome Outcome
+     * @return Count
+     */
+    public long getCount(String chaincode, String function, Outcome outcome) {
+        AtomicLong counter = outcomes.get(chaincode + "/" + function + "/" + outcome.name().toLowerCase(Locale.ROOT));
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Register the metrics and all stage timers with the platform MBean
+     * server. Timers created later are registered when they are created.
+     */
+    public void registerMBeans() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(DOMAIN + ":type=ClientMetrics"));
+        } catch (JMException ex) {
+            LOG.error("Could not register client metrics MBean", ex);
+            return;
+        }
+        registered = true;
+        for (StageTimer timer : timers.values()) {
+            register(timer);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getOutcomeCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : outcomes.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getTimeToFirstTransaction() {
+        return firstTransaction.get();
+    }
+
+    @Override
+    public long getWarmUpTime() {
+        return warmUp;
+    }
+
+    @Override
+    public String getPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        try {
+            writePrometheus(text);
+        } catch (IOException ex) {
+            // StringBuilder does not throw
+        }
+        return text.toString();
+    }
+
+    /**
+     * Write all metrics in the Prometheus text format. Stage timers are
+     * written as summaries in seconds, outcomes as counters.
+     *
+     * @param out Output to write to
+     * @throws IOException if the output cannot be written
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        out.append("# HELP fabric_client_stage_seconds Latency of transaction stages\n");
+        out.append("# TYPE fabric_client_stage_seconds summary\n");
+        for (StageTimer timer : new TreeMap<>(timers).values()) {
+            LatencyHistogram histogram = timer.getHistogram();
+            String labels = "chaincode=\"" + escape(timer.getChaincode()) + "\",function=\"" + escape(timer.getFunction()) + "\",stage=\"" + timer.getStage().name().toLowerCase(Locale.ROOT) + "\"";
+            for (double quantile : QUANTILES) {
+                out.append("fabric_client_stage_seconds{").append(labels).append(",quantile=\"").append(String.valueOf(quantile)).append("\"} ")
+                        .append(String.valueOf(histogram.getPercentile(quantile * 100) / 1e6)).append('\n');
+            }
+            out.append("fabric_client_stage_seconds_sum{").append(labels).append("} ").append(String.valueOf(histogram.getSum() / 1e6)).append('\n');
+            out.append("fabric_client_stage_seconds_count{").append(labels).append("} ").append(String.valueOf(histogram.getCount())).append('\n');
+        }
+        out.append("# HELP fabric_client_transactions_total Transaction outcomes\n");
+        out.append("# TYPE fabric_client_transactions_total counter\n");
+        for (Map.Entry<String, Long> entry : getOutcomeCounts().entrySet()) {
+            // key is chaincode/function/outcome, chaincode and function names do not contain '/'
+            String[] parts = entry.getKey().split("/", 3);
+            out.append("fabric_client_transactions_total{chaincode=\"").append(escape(parts[0])).append("\",function=\"").append(escape(parts[1]))
+                    .append("\",outcome=\"").append(parts[2]).append("\"} ").append(String.valueOf(entry.getValue())).append('\n');
+        }
+        if (warmUp >= 0) {
+            out.append("# HELP fabric_client_warm_up_seconds Duration of the startup warm-up\n");
+            out.append("# TYPE fabric_client_warm_up_seconds gauge\n");
+            out.append("fabric_client_warm_up_seconds ").append(String.valueOf(warmUp / 1e3)).append('\n');
+        }
+        if (firstTransaction.get() >= 0) {
+            out.append("# HELP fabric_client_time_to_first_transaction_seconds Time from start until the first transaction committed\n");
+            out.append("# TYPE fabric_client_time_to_first_transaction_seconds gauge\n");
+            out.append("fabric_client_time_to_first_transaction_seconds ").append(String.valueOf(firstTransaction.get() / 1e3)).append('\n');
+        }
+    }
+
+    private static void register(StageTimer timer) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=StageTimer,chaincode=" + ObjectName.quote(timer.getChaincode())
+                    + ",function=" + ObjectName.quote(timer.getFunction()) + ",stage=" + timer.getStage().name().toLowerCase(Locale.ROOT));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(timer, name);
+        } catch (JMException ex) {
+            LOG.error("Could not register stage timer MBean", ex);
+        }
+    }
+
+    /**
+     * Escape a Prometheus label value
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,40 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the client metrics
+ *
+ * @author kehm
+ */
+public interface ClientMetricsMXBean {
+
+    /**
+     * Get transaction outcome counts
+     *
+     * @return Count for each chaincode/function/outcome
+     */
+    Map<String, Long> getOutcomeCounts();
+
+    /**
+     * Get time from start of the JVM until the first transaction committed
+     *
+     * @return Milliseconds, -1 if no transaction has committed
+     */
+    long getTimeToFirstTransaction();
+
+    /**
+     * Get duration of the startup warm-up
+     *
+     * @return Milliseconds, -1 if the warm-up has not completed
+     */
+    long getWarmUpTime();
+
+    /**
+     * Get all metrics in the Prometheus text format
+     *
+     * @return Metrics text
+     */
+    String getPrometheusText();
+}
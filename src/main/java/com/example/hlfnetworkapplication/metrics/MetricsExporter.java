@@ -0,0 +1,105 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * Exports client metrics in the Prometheus text format, over HTTP on
+ * /metrics and by writing a file at a fixed interval.
+ *
+ * @author kehm
+ */
+public class MetricsExporter {
+
+    private static final Logger LOG = Logger.getLogger(MetricsExporter.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final ClientMetrics metrics;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread thread = new Thread(r, "metrics-exporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private HttpServer server;
+
+    /**
+     * Constructor for MetricsExporter object
+     *
+     * @param metrics Metrics to export
+     */
+    public MetricsExporter(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Serve metrics over HTTP on /metrics
+     *
+     * @param port Port to listen on
+     * @throws IOException if the server cannot be started
+     */
+    public synchronized void startServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", (exchange) -> {
+            byte[] body = metrics.getPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(executor);
+        // the dispatcher thread inherits the daemon flag of the thread starting the server
+        try {
+            executor.submit(server::start).get();
+        } catch (Exception ex) {
+            throw new IOException("Could not start metrics server", ex);
+        }
+        LOG.info("Serving metrics on port " + server.getAddress().getPort());
+    }
+
+    /**
+     * Write metrics to a file at a fixed interval. The file is replaced
+     * atomically so readers never see a partial dump.
+     *
+     * @param file Path of the file
+     * @param interval Interval in milliseconds
+     */
+    public void startFileDump(String file, long interval) {
+        Path path = Paths.get(file).toAbsolutePath();
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+                try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    metrics.writePrometheus(writer);
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                LOG.error("Could not write metrics to '" + path + "'", ex);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the HTTP server and the file dump
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,106 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.metrics;
+
+import java.util.concurrent.TimeUnit;
+import com.example.hlfnetworkapplication.util.LatencyHistogram;
+
+/**
+ * Latency of one stage of a chaincode function
+ *
+ * @author kehm
+ */
+public class StageTimer implements StageTimerMXBean {
+
+    private final String chaincode;
+    private final String function;
+    private final ClientMetrics.Stage stage;
+    private final LatencyHistogram histogram = new LatencyHistogram(); // durations in microseconds
+
+    /**
+     * Constructor for StageTimer object
+     *
+     * @param chaincode Name of chaincode
+     * @param function Chaincode function
+     * @param stage Timed stage
+     */
+    public StageTimer(String chaincode, String function, ClientMetrics.Stage stage) {
+        this.chaincode = chaincode;
+        this.function = function;
+        this.stage = stage;
+    }
+
+    /**
+     * Record a duration
+     *
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(long nanos) {
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Get recorded durations
+     *
+     * @return Histogram of durations in microseconds
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Get name of chaincode
+     *
+     * @return Chaincode name
+     */
+    public String getChaincode() {
+        return chaincode;
+    }
+
+    /**
+     * Get chaincode function
+     *
+     * @return Function name
+     */
+    public String getFunction() {
+        return function;
+    }
+
+    /**
+     * Get timed stage
+     *
+     * @return Stage
+     */
+    public ClientMetrics.Stage getStage() {
+        return stage;
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return histogram.getMean() / 1000;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return histogram.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return histogram.getPercentile(90) / 1000.0;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return histogram.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return histogram.getMax() / 1000.0;
+    }
+}
@@ -0,0 +1,52 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.metrics;
+
+/**
+ * Management interface of a stage timer
+ *
+ * @author kehm
+ */
+public interface StageTimerMXBean {
+
+    /**
+     * Get number of recorded durations
+     *
+     * @return Count
+     */
+    long getCount();
+
+    /**
+     * Get mean duration
+     *
+     * @return Mean in milliseconds
+     */
+    double getMeanMillis();
+
+    /**
+     * Get median duration
+     *
+     * @return Median in milliseconds
+     */
+    double getP50Millis();
+
+    /**
+     * Get 90th percentile duration
+     *
+     * @return 90th percentile in milliseconds
+     */
+    double getP90Millis();
+
+    /**
+     * Get 99th percentile duration
+     *
+     * @return 99th percentile in milliseconds
+     */
+    double getP99Millis();
+
+    /**
+     * Get longest duration
+     *
+     * @return Max in milliseconds
+     */
+    double getMaxMillis();
+}
@@ -0,0 +1,112 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.util;
+
+/**
+ * Enrollment configuration of an affiliation, as listed in the affiliations
+ * file
+ *
+ * @author kehm
+ */
+public class Affiliation {
+
+    private final String name;
+    private final String mspId;
+    private final String caName;
+    private final String caUrl;
+    private final String registrarName;
+    private final String registrarPass;
+
+    /**
+     * Constructor for Affiliation object
+     *
+     * @param name Affiliation name
+     * @param mspId MSP of the affiliation
+     * @param caName Name of the CA enrolling users of the affiliation
+     * @param caUrl URL of the CA
+     * @param registrarName Registrar name
+     * @param registrarPass Registrar password
+     */
+    public Affiliation(String name, String mspId, String caName, String caUrl, String registrarName, String registrarPass) {
+        this.name = name;
+        this.mspId = mspId;
+        this.caName = caName;
+        this.caUrl = caUrl;
+        this.registrarName = registrarName;
+        this.registrarPass = registrarPass;
+    }
+
+    /**
+     * Parse a line of the affiliations file
+     *
+     * @param line Affiliation, msp, CA name, CA url, registrar name and
+     * registrar password separated by ';'
+     * @return Affiliation
+     * @throws IllegalArgumentException if the line does not have six fields
+     */
+    public static Affiliation parse(String line) {
+        String[] args = line.split(";");
+        if (args.length < 6) {
+            throw new IllegalArgumentException("Expected 6 fields in affiliation '" + line + "'");
+        }
+        return new Affiliation(args[0].trim(), args[1].trim(), args[2].trim(), args[3].trim(), args[4].trim(), args[5].trim());
+    }
+
+    /**
+     * Get affiliation name
+     *
+     * @return Affiliation name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get MSP of the affiliation
+     *
+     * @return MSP ID
+     */
+    public String getMspId() {
+        return mspId;
+    }
+
+    /**
+     * Get name of the CA
+     *
+     * @return CA name
+     */
+    public String getCaName() {
+        return caName;
+    }
+
+    /**
+     * Get URL of the CA
+     *
+     * @return CA URL
+     */
+    public String getCaUrl() {
+        return caUrl;
+    }
+
+    /**
+     * Get registrar name
+     *
+     * @return Registrar name
+     */
+    public String getRegistrarName() {
+        return registrarName;
+    }
+
+    /**
+     * Get registrar password
+     *
+     * @return Registrar password
+     */
+    public String getRegistrarPass() {
+        return registrarPass;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
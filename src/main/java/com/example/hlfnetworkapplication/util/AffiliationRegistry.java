@@ -0,0 +1,222 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * Affiliations parsed from the affiliations file, indexed by affiliation name
+ * and by MSP. The file is watched, and parsed again when it changes. A parsed
+ * file replaces the previous one at once, so a lookup sees either the old or
+ * the new file. A file that cannot be parsed is logged and the previous one
+ * is kept.
+ *
+ * @author kehm
+ */
+public class AffiliationRegistry {
+
+    private static final Logger LOG = Logger.getLogger(AffiliationRegistry.class);
+
+    private static AffiliationRegistry instance; // shared by the GUI and the headless client
+
+    private final Path path;
+    private volatile Snapshot snapshot;
+    private WatchService watcher;
+
+    /**
+     * Constructor for AffiliationRegistry object. Parses the file, but does
+     * not watch it.
+     *
+     * @param path Path of the affiliations file
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public AffiliationRegistry(Path path) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.snapshot = load(this.path);
+    }
+
+    /**
+     * Get the registry of the affiliations file on the class path, parsing
+     * the file and starting to watch it on first use
+     *
+     * @return Shared registry
+     * @throws IOException if the file cannot be found, read or parsed
+     */
+    public static synchronized AffiliationRegistry getInstance() throws IOException {
+        if (instance == null) {
+            URL resource = AffiliationRegistry.class.getClassLoader().getResource(Strings.AFFILIATIONS_FILENAME);
+            if (resource == null) {
+                throw new IOException("Could not find '" + Strings.AFFILIATIONS_FILENAME + "' on the class path");
+            }
+            try {
+                instance = new AffiliationRegistry(Paths.get(resource.toURI()));
+            } catch (URISyntaxException | IllegalArgumentException ex) {
+                throw new IOException("Could not locate '" + Strings.AFFILIATIONS_FILENAME + "'", ex);
+            }
+            instance.watch();
+        }
+        return instance;
+    }
+
+    /**
+     * Look up an affiliation
+     *
+     * @param name Affiliation name, ignoring case
+     * @return Affiliation, or null if not configured
+     */
+    public Affiliation get(String name) {
+        return snapshot.byName.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Get all affiliations in the order of the file
+     *
+     * @return Unmodifiable list of affiliations
+     */
+    public List<Affiliation> getAll() {
+        return snapshot.all;
+    }
+
+    /**
+     * Get the affiliations of an MSP
+     *
+     * @param mspId MSP ID
+     * @return Unmodifiable list of affiliations, empty if none
+     */
+    public List<Affiliation> getByMsp(String mspId) {
+        return snapshot.byMsp.getOrDefault(mspId, Collections.emptyList());
+    }
+
+    /**
+     * Parse the file again
+     *
+     * @throws IOException if the file cannot be read or parsed. The
+     * previously parsed file is kept.
+     */
+    public void reload() throws IOException {
+        snapshot = load(path);
+        LOG.info("Reloaded " + snapshot.all.size() + " affiliations from '" + path + "'");
+    }
+
+    /**
+     * Start watching the file for changes
+     *
+     * @throws IOException if the directory of the file cannot be watched
+     */
+    public synchronized void watch() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        watcher = path.getFileSystem().newWatchService();
+        path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(this::run, "affiliation-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching the file
+     */
+    public synchronized void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ex) {
+                LOG.error("Could not close watch service for '" + path + "'", ex);
+            }
+            watcher = null;
+        }
+    }
+
+    private void run() {
+        WatchService service = watcher;
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // the directory is watched, only react to the affiliations file or to lost events
+                    changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || path.getFileName().equals(event.context());
+                }
+                if (changed) {
+                    try {
+                        reload();
+                    } catch (IOException | RuntimeException ex) {
+                        LOG.error("Could not reload affiliations from '" + path + "'. Keeping previous affiliations", ex);
+                    }
+                }
+                if (!key.reset()) {
+                    LOG.error("Stopped watching '" + path + "'");
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ex) {
+            // closed
+        }
+    }
+
+    private static Snapshot load(Path path) throws IOException {
+        List<Affiliation> all = new ArrayList<>();
+        Map<String, Affiliation> byName = new HashMap<>();
+        Map<String, List<Affiliation>> byMsp = new HashMap<>();
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = br.readLine()) != null) {
+                number++;
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                Affiliation affiliation;
+                try {
+                    affiliation = Affiliation.parse(line);
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException("Invalid affiliation on line " + number + " of '" + path + "'", ex);
+                }
+                // the first line of an affiliation wins, as when the file was searched line by line
+                if (byName.putIfAbsent(affiliation.getName().toLowerCase(Locale.ROOT), affiliation) == null) {
+                    all.add(affiliation);
+                    byMsp.computeIfAbsent(affiliation.getMspId(), (msp) -> new ArrayList<>()).add(affiliation);
+                }
+            }
+        }
+        byMsp.replaceAll((msp, affiliations) -> Collections.unmodifiableList(affiliations));
+        return new Snapshot(Collections.unmodifiableList(all), byName, byMsp);
+    }
+
+    /**
+     * Affiliations parsed from one version of the file
+     */
+    private static class Snapshot {
+
+        private final List<Affiliation> all;
+        private final Map<String, Affiliation> byName; // by lower case name
+        private final Map<String, List<Affiliation>> byMsp;
+
+        private Snapshot(List<Affiliation> all, Map<String, Affiliation> byName, Map<String, List<Affiliation>> byMsp) {
+            this.all = all;
+            this.byName = byName;
+            this.byMsp = byMsp;
+        }
+    }
+}
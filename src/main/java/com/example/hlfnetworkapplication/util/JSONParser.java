@@ -1,18 +1,30 @@
 /* SPDX-License-Identifier: Apache-2.0 */
 package com.example.hlfnetworkapplication.util;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
- * JSON Parser utility class
- * 
+ * JSON Parser utility class. Payloads are pretty printed by streaming tokens
+ * from a reader to a writer, without building a tree of the payload, so
+ * memory does not grow with the size of the payload. Large arrays can be
+ * truncated, with an element noting how many elements were left out.
+ *
  * @author kehm
  */
 public class JSONParser {
 
+    private static final String INDENT = "  ";
+
     /**
      * Gets JSON pretty print
      *
@@ -20,12 +32,163 @@ public class JSONParser {
      * @return Pretty string
      */
     public static String getPrettyPrint(String[] strings) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        String output = "";
+        StringBuilder output = new StringBuilder();
         for (String string : strings) {
-            JsonElement element = new JsonParser().parse(string);
-            output = output + "\n" + gson.toJson(element);
+            output.append('\n');
+            try {
+                prettyPrint(new StringReader(string), output, 0);
+            } catch (IOException ex) {
+                // a StringBuilder does not throw, the payload is not valid JSON
+                throw new IllegalArgumentException("Could not parse JSON payload", ex);
+            }
+        }
+        return output.toString();
+    }
+
+    /**
+     * Pretty print a UTF-8 encoded JSON payload
+     *
+     * @param payload Payload bytes
+     * @param out Output to write to
+     * @param maxArrayElements Maximum number of elements printed for each
+     * array, 0 for no limit
+     * @throws IOException if the payload is not valid JSON or the output
+     * cannot be written
+     */
+    public static void prettyPrint(byte[] payload, Appendable out, int maxArrayElements) throws IOException {
+        prettyPrint(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8), out, maxArrayElements);
+    }
+
+    /**
+     * Pretty print a JSON document
+     *
+     * @param in Document to read
+     * @param out Output to write to
+     * @param maxArrayElements Maximum number of elements printed for each
+     * array, 0 for no limit
+     * @throws IOException if the document is not valid JSON or the output
+     * cannot be written
+     */
+    public static void prettyPrint(Reader in, Appendable out, int maxArrayElements) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        JsonWriter writer = new JsonWriter(out instanceof Writer ? (Writer) out : new AppendableWriter(out));
+        // same format as pretty printing with Gson
+        writer.setIndent(INDENT);
+        writer.setHtmlSafe(true);
+        writer.setSerializeNulls(false);
+        writer.setLenient(true);
+        copyValue(reader, writer, maxArrayElements);
+        writer.flush();
+    }
+
+    /**
+     * Copy the next value from the reader to the writer. Nesting is followed
+     * iteratively, so that deeply nested documents do not overflow the stack.
+     */
+    private static void copyValue(JsonReader reader, JsonWriter writer, int maxArrayElements) throws IOException {
+        int[] counts = new int[32]; // elements printed in each open array
+        int depth = 0;
+        do {
+            JsonToken token = reader.peek();
+            if (depth > 0 && counts[depth - 1] >= 0 && token != JsonToken.END_ARRAY && token != JsonToken.END_OBJECT) {
+                // element of an array, truncate once the limit is reached
+                if (maxArrayElements > 0 && counts[depth - 1] == maxArrayElements) {
+                    int skipped = 0;
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                        skipped++;
+                    }
+                    writer.value("... " + skipped + " more");
+                    continue;
+                }
+                counts[depth - 1]++;
+            }
+            switch (token) {
+                case BEGIN_ARRAY:
+                    reader.beginArray();
+                    writer.beginArray();
+                    counts = push(counts, depth++, 0);
+                    break;
+                case END_ARRAY:
+                    reader.endArray();
+                    writer.endArray();
+                    depth--;
+                    break;
+                case BEGIN_OBJECT:
+                    reader.beginObject();
+                    writer.beginObject();
+                    counts = push(counts, depth++, -1); // members of an object are not counted
+                    break;
+                case END_OBJECT:
+                    reader.endObject();
+                    writer.endObject();
+                    depth--;
+                    break;
+                case NAME:
+                    writer.name(reader.nextName());
+                    break;
+                case STRING:
+                    writer.value(reader.nextString());
+                    break;
+                case NUMBER:
+                    writer.jsonValue(reader.nextString()); // keep the number as written in the payload
+                    break;
+                case BOOLEAN:
+                    writer.value(reader.nextBoolean());
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    writer.nullValue();
+                    break;
+                default:
+                    throw new IOException("Unexpected token " + token + " at " + reader.getPath());
+            }
+        } while (depth > 0);
+    }
+
+    private static int[] push(int[] counts, int depth, int count) {
+        if (depth == counts.length) {
+            int[] grown = new int[counts.length * 2];
+            System.arraycopy(counts, 0, grown, 0, counts.length);
+            counts = grown;
+        }
+        counts[depth] = count;
+        return counts;
+    }
+
+    /**
+     * Writer appending to an Appendable
+     */
+    private static class AppendableWriter extends Writer {
+
+        private final Appendable out;
+
+        private AppendableWriter(Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            out.append(CharBuffer.wrap(chars, offset, length)); // no copy of the characters
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.append((char) c);
+        }
+
+        @Override
+        public void write(String string, int offset, int length) throws IOException {
+            out.append(string, offset, offset + length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
         }
-        return output;
     }
 }
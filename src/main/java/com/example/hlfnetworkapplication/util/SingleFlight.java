@@ -0,0 +1,79 @@
+/* SPDX-License-Identifier: Apache-2.0 */
+package com.example.hlfnetworkapplication.util;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls with the same key. The first caller runs the
+ * call on its own thread, and callers arriving while it is in flight wait for
+ * and share its result or exception. A call that has completed is not
+ * cached, the next caller runs it again.
+ *
+ * @param <K> Key identifying identical calls
+ * @param <V> Result of a call
+ * @author kehm
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>(); // calls in flight by key
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Run a call, or wait for the identical call in flight
+     *
+     * @param key Key identifying identical calls
+     * @param call Call to run if none is in flight for the key
+     * @return Result of the call
+     * @throws Exception if the call fails, or InterruptedException if
+     * interrupted while waiting for the call in flight
+     */
+    public V execute(K key, Callable<V> call) throws Exception {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = calls.putIfAbsent(key, flight);
+        if (existing != null) {
+            shared.incrementAndGet();
+            try {
+                return existing.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+        try {
+            V result = call.call();
+            flight.complete(result);
+            return result;
+        } catch (Exception | Error ex) {
+            flight.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            calls.remove(key, flight);
+        }
+    }
+
+    /**
+     * Get number of calls answered by a call already in flight
+     *
+     * @return Shared calls
+     */
+    public long getShared() {
+        return shared.get();
+    }
+
+    /**
+     * Get number of calls in flight
+     *
+     * @return Calls in flight
+     */
+    public int getInFlight() {
+        return calls.size();
+    }
+}
@@ -24,6 +24,61 @@ public final class Strings {
     public static final String FORMAT_NATIONAL_ID_LENGTH = "11";
     
     public static final String PROPOSAL_TIMEOUT = "120000";
+    public static final String COMMIT_TIMEOUT = "60000";
+    public static final String COMMIT_SWEEP_INTERVAL = "1000";
+    public static final String WRITE_MAX_RETRIES = "5";
+    public static final String WRITE_RETRY_BACKOFF = "100";
+    public static final String WRITE_RETRY_MAX_BACKOFF = "2000";
+    public static final String SUBMIT_MAX_IN_FLIGHT = "256";
+    public static final String SUBMIT_INITIAL_IN_FLIGHT = "32";
+    public static final String QUERY_MAX_IN_FLIGHT = "128";
+    public static final String QUERY_INITIAL_IN_FLIGHT = "16";
+    public static final String LIMIT_MIN_IN_FLIGHT = "4";
+    public static final String LIMIT_BACKOFF_RATIO = "0.9";
+    public static final String LIMIT_LATENCY_TOLERANCE = "3.0";
+    public static final String LIMIT_QUEUE_TIMEOUT = "10000";
+    public static final String LIMIT_MAX_QUEUED = "4096";
+    public static final String SUBMIT_PROPOSAL_THREADS = "32";
+    public static final String ENDORSER_CACHE_TTL = "30000";
+    public static final String ENDORSER_CACHE_BACKGROUND_REFRESH = "false";
+    public static final String DISCOVERY_REFRESH_INTERVAL = "60000";
+    public static final String ENDORSER_SELECTION_LATENCY_AWARE = "true";
+    public static final String ENDORSER_PROBE_RATE = "0.05";
+    public static final String QUERY_HEDGING_ENABLED = "true";
+    public static final String QUERY_HEDGE_PERCENTILE = "95";
+    public static final String QUERY_HEDGE_MIN_DELAY = "20";
+    public static final String QUERY_HEDGE_INITIAL_DELAY = "500";
+    public static final String QUERY_COALESCING_ENABLED = "true";
+    public static final String ORDERER_DOWN_TIME = "30000";
+    public static final String RECORD_CACHE_ENABLED = "false";
+    public static final String RECORD_CACHE_SIZE = "1000";
+    public static final String RECORD_CACHE_AUDIT_HITS = "true";
+    public static final String RECORD_CACHE_AUDIT_INTERVAL = "10000";
+    public static final String READ_FAST_PATH = "false";
+    public static final String OUTBOX_ENABLED = "false";
+    public static final String OUTBOX_DIRECTORY = "outbox";
+    public static final String OUTBOX_SIZE = "16777216";
+    public static final String OUTBOX_RETRY_DELAY = "5000";
+    public static final String OUTBOX_MAX_ATTEMPTS = "10";
+
+    public static final String METRICS_JMX_ENABLED = "true";
+    public static final String METRICS_HTTP_PORT = "0";
+    public static final String METRICS_FILE = "";
+    public static final String METRICS_FILE_INTERVAL = "10000";
+
+    public static final String LOAD_CONCURRENCY = "64";
+    public static final String LOAD_TPS = "50";
+    public static final String LOAD_DURATION = "60";
+    public static final String LOAD_MIX = "create:2,log:3,query:5";
+    public static final String LOAD_REPORT_INTERVAL = "5000";
+    public static final String IMPORT_CONCURRENCY = "64";
+    public static final String IMPORT_REPORT_INTERVAL = "5000";
+    public static final String ENROLL_CONCURRENCY = "8";
+    public static final String CREDENTIAL_STORE_FILENAME = "users/credentials.store";
+    public static final String CREDENTIAL_CACHE_SIZE = "1000";
+    public static final String STARTUP_CACHE_ENABLED = "true";
+    public static final String STARTUP_CACHE_FILENAME = "cache/startup.txt";
+    public static final String RECORD_VIEWER_PAGE_SIZE = "100";
 
     public static final String EVENT_READ = "READ";
     public static final String EVENT_WRITE = "WRITE";